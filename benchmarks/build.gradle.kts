@@ -0,0 +1,45 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.release.set(21)
+}
+
+repositories {
+    mavenCentral()
+    maven("https://repo.papermc.io/repository/maven-releases/")
+    maven("https://repo.spongepowered.org/repository/maven-public/")
+    maven("https://repo.leavesmc.org/snapshots")
+    maven("https://repo.fandmc.cn/snapshots")
+}
+
+dependencies {
+    jmh(project(":java21"))
+    // Used to generate the synthetic patches
+    jmh("io.sigpipe:jbsdiff:1.0")
+    // Used to generate the classes of the class loader stress harness
+    jmh("org.ow2.asm:asm:5.2")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    // Report allocations next to throughput
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
+tasks.register<JavaExec>("stress") {
+    description = "Loads classes through LaunchClassLoader from many threads and checks each is defined once"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("launchwrapper.LaunchClassLoaderStress")
+}
@@ -0,0 +1,73 @@
+package com.fandmc.fandclip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up resources in an auto-update core jar with many library entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AutoUpdateBenchmark {
+
+    @Param({"80"})
+    public int libraryCount;
+
+    @Param({"1048576"})
+    public int librarySize;
+
+    private Path dir;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("fandclip-bench");
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < this.libraryCount; i++) {
+            entries.put("META-INF/libraries/lib-" + i + ".jar", SyntheticBundle.data(this.librarySize, i));
+        }
+        entries.put("META-INF/libraries.list", "small".getBytes());
+        final Path coreJar = this.dir.resolve("core.jar");
+        SyntheticBundle.writeJar(coreJar, entries, false);
+
+        AutoUpdate.autoUpdateCorePath = coreJar.toString();
+        AutoUpdate.useAutoUpdateJar = true;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticBundle.delete(this.dir);
+    }
+
+    /**
+     * A small list file stored after all the libraries.
+     */
+    @Benchmark
+    public byte[] listFile() throws IOException {
+        try (final InputStream in = AutoUpdate.getResourceAsStream(AutoUpdate.autoUpdateCorePath, "/META-INF/libraries.list")) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public byte[] library() throws IOException {
+        try (final InputStream in = AutoUpdate.getResourceAsStream(AutoUpdate.autoUpdateCorePath, "/META-INF/libraries/lib-" + (this.libraryCount / 2) + ".jar")) {
+            return in.readAllBytes();
+        }
+    }
+}
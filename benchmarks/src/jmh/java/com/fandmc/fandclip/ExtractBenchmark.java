@@ -0,0 +1,79 @@
+package com.fandmc.fandclip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracting a library out of the original jar, which is the bulk of a cold start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExtractBenchmark {
+
+    private static final int LIBRARY_COUNT = 16;
+
+    @Param({"262144", "4194304"})
+    public int librarySize;
+
+    @Param({"false", "true"})
+    public boolean stored;
+
+    private Path dir;
+    private FileSystem originalFs;
+    private FileEntry entry;
+    private Path outputDir;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("fandclip-bench");
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        byte[] last = null;
+        for (int i = 0; i < LIBRARY_COUNT; i++) {
+            last = SyntheticBundle.data(this.librarySize, i);
+            entries.put("META-INF/libraries/lib-" + i + ".jar", last);
+        }
+        final Path originalJar = this.dir.resolve("original.jar");
+        SyntheticBundle.writeJar(originalJar, entries, this.stored);
+
+        this.originalFs = FileSystems.newFileSystem(originalJar);
+        // The last entry, so lookups can't get lucky
+        this.entry = new FileEntry(Sha256.hash(last), "lib", "lib-" + (LIBRARY_COUNT - 1) + ".jar");
+        this.outputDir = this.dir.resolve("libraries");
+    }
+
+    @Setup(Level.Invocation)
+    public void removeOutput() throws IOException {
+        Files.deleteIfExists(this.outputDir.resolve(this.entry.path()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.originalFs.close();
+        SyntheticBundle.delete(this.dir);
+    }
+
+    @Benchmark
+    public URL extractFile() throws IOException {
+        return this.entry.extractFile(new PatchEntry[0], "libraries", CompletableFuture.completedFuture(this.originalFs.getPath("/")), "/META-INF/libraries", this.outputDir);
+    }
+}
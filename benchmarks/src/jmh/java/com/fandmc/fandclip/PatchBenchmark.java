@@ -0,0 +1,92 @@
+package com.fandmc.fandclip;
+
+import io.sigpipe.jbsdiff.Diff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying a bsdiff patch to a synthetic server jar, with jbsdiff and with the streaming engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PatchBenchmark {
+
+    // Generating the patch is a suffix sort over the whole file, so keep the sizes moderate
+    @Param({"1048576", "8388608"})
+    public int size;
+
+    private Path dir;
+    private FileSystem originalFs;
+    private PatchEntry patch;
+
+    @Setup
+    public void setup() throws Exception {
+        this.dir = Files.createTempDirectory("fandclip-bench");
+        final byte[] original = SyntheticBundle.data(this.size, 1);
+        final byte[] modified = SyntheticBundle.modify(original, 2);
+        final ByteArrayOutputStream patchData = new ByteArrayOutputStream();
+        Diff.diff(original, modified, patchData);
+
+        final Path originalJar = this.dir.resolve("original.jar");
+        SyntheticBundle.writeJar(originalJar, Map.of("META-INF/versions/server.jar", original), false);
+        final Path coreJar = this.dir.resolve("core.jar");
+        SyntheticBundle.writeJar(coreJar, Map.of("META-INF/versions/server.patch", patchData.toByteArray()), false);
+
+        // Serve the patch from the core jar, like an auto-update would
+        AutoUpdate.autoUpdateCorePath = coreJar.toString();
+        AutoUpdate.useAutoUpdateJar = true;
+
+        this.originalFs = FileSystems.newFileSystem(originalJar);
+        this.patch = new PatchEntry(
+                "versions",
+                Sha256.hash(original),
+                Sha256.hash(patchData.toByteArray()),
+                Sha256.hash(modified),
+                "server.jar",
+                "server.patch",
+                "fand.jar"
+        );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.originalFs.close();
+        SyntheticBundle.delete(this.dir);
+    }
+
+    private URL apply() throws IOException {
+        try (final PatchInputs inputs = new PatchInputs(this.dir.resolve("cache"))) {
+            return this.patch.applyPatch(this.originalFs.getPath("/"), this.dir, inputs);
+        }
+    }
+
+    @Benchmark
+    public URL jbsdiff() throws IOException {
+        return this.apply();
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Dfandclip.streamingPatch=true")
+    public URL streaming() throws IOException {
+        return this.apply();
+    }
+}
@@ -0,0 +1,101 @@
+package com.fandmc.fandclip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds the pieces of a bundle locally, so the benchmarks don't need a real server jar.
+ */
+final class SyntheticBundle {
+
+    private SyntheticBundle() {
+    }
+
+    /**
+     * Creates data that compresses roughly like a jar full of classes: random bytes with repeated runs.
+     */
+    static byte[] data(final int size, final long seed) {
+        final Random random = new Random(seed);
+        final byte[] data = new byte[size];
+        int i = 0;
+        while (i < size) {
+            final int run = Math.min(size - i, 16 + random.nextInt(240));
+            if (random.nextBoolean() && i >= run) {
+                System.arraycopy(data, random.nextInt(i - run + 1), data, i, run);
+            } else {
+                for (int j = 0; j < run; j++) {
+                    data[i + j] = (byte) random.nextInt(64);
+                }
+            }
+            i += run;
+        }
+        return data;
+    }
+
+    /**
+     * Makes a copy of {@code original} with scattered edits, like a patched server jar.
+     */
+    static byte[] modify(final byte[] original, final long seed) {
+        final Random random = new Random(seed);
+        final byte[] modified = original.clone();
+        for (int i = 0; i < modified.length / 4096; i++) {
+            modified[random.nextInt(modified.length)] ^= (byte) (1 + random.nextInt(255));
+        }
+        return modified;
+    }
+
+    static void writeJar(final Path jar, final Map<String, byte[]> entries, final boolean stored) throws IOException {
+        Files.createDirectories(jar.getParent());
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                final ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (stored) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(zipEntry);
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    static void write(final Path file, final byte[] data) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (final OutputStream out = Files.newOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    static void delete(final Path dir) throws IOException {
+        if (Files.notExists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package com.fandmc.fandclip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and verifying a file of the size of a library or a server jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UtilBenchmark {
+
+    @Param({"1048576", "16777216", "67108864"})
+    public int size;
+
+    private byte[] data;
+    private Path dir;
+    private Path file;
+    private byte[] hash;
+
+    @Setup
+    public void setup() throws IOException {
+        this.data = SyntheticBundle.data(this.size, 1);
+        this.dir = Files.createTempDirectory("fandclip-bench");
+        this.file = this.dir.resolve("server.jar");
+        SyntheticBundle.write(this.file, this.data);
+        this.hash = Sha256.hash(this.data);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticBundle.delete(this.dir);
+    }
+
+    @Benchmark
+    public byte[] readFully() throws IOException {
+        return Util.readFully(new ByteArrayInputStream(this.data));
+    }
+
+    @Benchmark
+    public boolean isFileValid() {
+        return Util.isFileValid(this.file, this.hash);
+    }
+}
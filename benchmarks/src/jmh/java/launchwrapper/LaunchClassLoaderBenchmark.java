@@ -0,0 +1,55 @@
+package launchwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up a class the loader already defined, which reflection heavy plugins do all the time.
+ * With the gc profiler, {@code gc.alloc.rate.norm} should stay at 0 bytes per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LaunchClassLoaderBenchmark {
+
+    private static final String NAME = "stress.C1";
+
+    private Path jar;
+    private LaunchClassLoader loader;
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        this.jar = Files.createTempFile("lcl-bench", ".jar");
+        LaunchClassLoaderStress.writeClasses(this.jar, 8);
+        this.loader = new LaunchClassLoader(new URL[]{this.jar.toUri().toURL()}, LaunchClassLoaderBenchmark.class.getClassLoader());
+        Class.forName(NAME, false, this.loader);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.loader.close();
+        Files.deleteIfExists(this.jar);
+    }
+
+    @Benchmark
+    public Class<?> findClass() throws ClassNotFoundException {
+        return this.loader.findClass(NAME);
+    }
+
+    @Benchmark
+    public Class<?> loadClass() throws ClassNotFoundException {
+        return this.loader.loadClass(NAME);
+    }
+}
@@ -0,0 +1,164 @@
+package launchwrapper;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Hammers {@link LaunchClassLoader} from many threads at once and checks that every class
+ * is transformed exactly once and that all threads see the same {@link Class}.
+ * <p>
+ * Run it with {@code ./gradlew :benchmarks:stress}, or pass {@code threads rounds classes} as arguments.
+ */
+public final class LaunchClassLoaderStress {
+
+    private static final String PACKAGE = "stress";
+    // Every eighth class starts a new hierarchy, so defining one class also loads its superclasses
+    private static final int CHAIN_LENGTH = 8;
+
+    public static void main(final String[] args) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final int classCount = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        final Path jar = Files.createTempFile("lcl-stress", ".jar");
+        try {
+            writeClasses(jar, classCount);
+            final List<String> names = new ArrayList<>(classCount + classCount / 10);
+            for (int i = 0; i < classCount; i++) {
+                names.add(PACKAGE + ".C" + i);
+            }
+            // Missing classes go through the invalid class bookkeeping
+            for (int i = 0; i < classCount / 10; i++) {
+                names.add(PACKAGE + ".Missing" + i);
+            }
+
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final long start = System.nanoTime();
+                for (int round = 0; round < rounds; round++) {
+                    runRound(executor, threads, jar.toUri().toURL(), names, round);
+                }
+                System.out.printf("%d rounds of %d classes on %d threads passed in %d ms%n",
+                        rounds, names.size(), threads, (System.nanoTime() - start) / 1_000_000);
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            Files.deleteIfExists(jar);
+        }
+    }
+
+    private static void runRound(
+            final ExecutorService executor,
+            final int threads,
+            final URL jar,
+            final List<String> names,
+            final int round
+    ) throws Exception {
+        final LaunchClassLoader loader = new LaunchClassLoader(new URL[]{jar}, LaunchClassLoaderStress.class.getClassLoader());
+        loader.getClassLoaderExclusions().add(LaunchClassLoaderStress.class.getPackageName() + ".");
+        loader.registerTransformer(CountingTransformer.class.getName());
+        final CountingTransformer transformer = (CountingTransformer) loader.getTransformers().get(0);
+
+        final CountDownLatch ready = new CountDownLatch(1);
+        final Map<String, Class<?>> seen = new ConcurrentHashMap<>();
+        final List<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final List<String> order = new ArrayList<>(names);
+            Collections.shuffle(order, new Random(round * 31L + t));
+            // Half of the threads skip the lock of loadClass, like callers of the public findClass do
+            final boolean direct = t % 2 == 0;
+            futures.add(executor.submit(() -> {
+                ready.await();
+                for (final String name : order) {
+                    try {
+                        final Class<?> clazz = direct ? loader.findClass(name) : Class.forName(name, false, loader);
+                        final Class<?> previous = seen.putIfAbsent(name, clazz);
+                        if (previous != null && previous != clazz) {
+                            throw new IllegalStateException("Two different classes were defined for " + name);
+                        }
+                    } catch (final ClassNotFoundException e) {
+                        if (!name.startsWith(PACKAGE + ".Missing")) {
+                            throw new IllegalStateException("Could not load " + name, e);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        ready.countDown();
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+
+        for (final String name : names) {
+            final int count = transformer.count(name);
+            if (count != 1) {
+                throw new IllegalStateException(name + " was transformed " + count + " times in round " + round);
+            }
+        }
+        // Nothing asked for shared bytes, so every class should have released its bytes
+        final ClassBytesCache.Stats stats = loader.getClassBytesCacheStats();
+        if (stats.entries() != 0 || stats.inFlightEntries() != 0) {
+            throw new IllegalStateException("Class bytes were kept after definition in round " + round + ": " + stats);
+        }
+    }
+
+    static void writeClasses(final Path jar, final int classCount) throws IOException {
+        try (final JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (int i = 0; i < classCount; i++) {
+                final String superName = i % CHAIN_LENGTH == 0 ? "java/lang/Object" : PACKAGE + "/C" + (i - 1);
+                out.putNextEntry(new JarEntry(PACKAGE + "/C" + i + ".class"));
+                writeClass(out, PACKAGE + "/C" + i, superName);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void writeClass(final OutputStream out, final String name, final String superName) throws IOException {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+        writer.visitEnd();
+        out.write(writer.toByteArray());
+    }
+
+    /**
+     * Passes classes through unchanged, counting how often each one is transformed.
+     */
+    public static final class CountingTransformer implements IClassTransformer {
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+        public CountingTransformer() {
+        }
+
+        @Override
+        public byte[] transform(final String name, final String transformedName, final byte[] basicClass) {
+            this.counts.computeIfAbsent(transformedName, key -> new AtomicInteger()).incrementAndGet();
+            return basicClass;
+        }
+
+        int count(final String name) {
+            final AtomicInteger count = this.counts.get(name);
+            return count == null ? 0 : count.get();
+        }
+    }
+}
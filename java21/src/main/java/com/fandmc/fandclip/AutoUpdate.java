@@ -4,9 +4,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.fandmc.fandclip.Fandclip.LOGGER;
 
@@ -14,6 +21,10 @@ public class AutoUpdate {
     public static String autoUpdateCorePath;
     public static String autoUpdateDir = "auto_update";
     public static boolean useAutoUpdateJar = false;
+
+    // Opened on first use and kept open until closeCoreJars is called
+    private static final Map<String, FileSystem> coreJarFileSystems = new ConcurrentHashMap<>();
+    private static final Map<String, Optional<StoredJarEntries>> coreJarStoredEntries = new ConcurrentHashMap<>();
     
     public static void init() {
         File workingDirFile = new File(autoUpdateDir);
@@ -82,28 +93,102 @@ public class AutoUpdate {
             return AutoUpdate.class.getResourceAsStream(name);
         }
 
-        name = name.replaceFirst("/", "");
-        InputStream result = null;
+        try {
+            Path resource = findResource(jarPath, name);
+            return resource == null ? null : Files.newInputStream(resource);
+        } catch (IOException e) {
+            LOGGER.error(e.getLocalizedMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens a resource as a channel. Stored entries of the core jar are read straight from the jar file,
+     * without going through an inflater or an intermediate stream. Compressed entries go through the zip file system.
+     */
+    public static ReadableByteChannel getResourceAsChannel(String jarPath, String name) {
+        if (!useAutoUpdateJar) {
+            InputStream stream = AutoUpdate.class.getResourceAsStream(name);
+            return stream == null ? null : Channels.newChannel(stream);
+        }
 
         try {
-            ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(jarPath));
-            ZipEntry zipEntry;
+            final StoredJarEntries storedEntries = findStoredEntries(jarPath);
+            final ReadableByteChannel stored = storedEntries == null ? null : storedEntries.channel(name.startsWith("/") ? name.substring(1) : name);
+            if (stored != null) {
+                return stored;
+            }
+
+            Path resource = findResource(jarPath, name);
+            // Not Files.newByteChannel, the zip file system buffers the whole entry on the heap for that
+            return resource == null ? null : Channels.newChannel(Files.newInputStream(resource));
+        } catch (IOException e) {
+            LOGGER.error(e.getLocalizedMessage(), e);
+            return null;
+        }
+    }
 
-            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                if (zipEntry.getName().equals(name)) {
-                    result = new ByteArrayInputStream(zipInputStream.readAllBytes());
-                    break;
+    /**
+     * Closes the core jars, once extracting and patching are done. They are opened again if they are needed after all.
+     */
+    public static void closeCoreJars() {
+        synchronized (coreJarFileSystems) {
+            for (final FileSystem jarFs : coreJarFileSystems.values()) {
+                try {
+                    jarFs.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to close {}", jarFs, e);
                 }
-                zipInputStream.closeEntry();
             }
-            zipInputStream.close();
+            coreJarFileSystems.clear();
+        }
+        synchronized (coreJarStoredEntries) {
+            for (final Optional<StoredJarEntries> storedEntries : coreJarStoredEntries.values()) {
+                try {
+                    if (storedEntries.isPresent()) {
+                        storedEntries.get().close();
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to close stored entries", e);
+                }
+            }
+            coreJarStoredEntries.clear();
+        }
+    }
 
-            if (result == null) {
-                throw new IOException(name + " not found in our jar or in the " + jarPath);
+    private static StoredJarEntries findStoredEntries(String jarPath) throws IOException {
+        Optional<StoredJarEntries> storedEntries = coreJarStoredEntries.get(jarPath);
+        if (storedEntries == null) {
+            synchronized (coreJarStoredEntries) {
+                storedEntries = coreJarStoredEntries.get(jarPath);
+                if (storedEntries == null) {
+                    storedEntries = Optional.ofNullable(StoredJarEntries.open(Path.of(jarPath)));
+                    coreJarStoredEntries.put(jarPath, storedEntries);
+                }
             }
-        } catch (IOException e) {
-            LOGGER.error(e.getLocalizedMessage(), e);
         }
-        return result;
+        return storedEntries.orElse(null);
+    }
+
+    private static Path findResource(String jarPath, String name) throws IOException {
+        // The zip file system reads the central directory once and keeps a name index of it,
+        // so a lookup no longer inflates the jar up to the entry we are looking for
+        FileSystem jarFs = coreJarFileSystems.get(jarPath);
+        if (jarFs == null) {
+            synchronized (coreJarFileSystems) {
+                jarFs = coreJarFileSystems.get(jarPath);
+                if (jarFs == null) {
+                    jarFs = FileSystems.newFileSystem(Path.of(jarPath));
+                    coreJarFileSystems.put(jarPath, jarFs);
+                }
+            }
+        }
+
+        Path resource = jarFs.getPath(name.startsWith("/") ? name : "/" + name);
+        if (Files.notExists(resource)) {
+            LOGGER.error("{} not found in our jar or in the {}", name.replaceFirst("/", ""), jarPath);
+            return null;
+        }
+        return resource;
     }
 }
@@ -0,0 +1,159 @@
+package com.fandmc.fandclip;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * Restarts the launcher in a child JVM which uses a dynamic class data sharing archive, with {@code -Dfandclip.cds=true}.
+ * <p>
+ * The archive covers the JDK and everything on the launcher class path (jopt-simple, slf4j, Mixin, ASM). Classes
+ * defined by the {@link launchwrapper.LaunchClassLoader} are transformed at runtime and can't be archived. The archive
+ * name is derived from the bundle: the launcher jar, the auto-update core jar and the JVM. The first start of a
+ * bundle trains the archive, which the JVM writes when the server stops ({@code -XX:+AutoCreateSharedArchive}).
+ * Later starts map it, and the JVM rebuilds it on its own if it no longer matches.
+ * <p>
+ * The parent JVM only waits for the child, forwards its exit code and stops it when it is stopped itself.
+ */
+final class CdsLauncher {
+
+    private static final boolean ENABLED = Boolean.getBoolean("fandclip.cds");
+    private static final String CHILD_PROPERTY = "fandclip.cdsChild";
+    // The entry point of the launcher jar, which checks the Java version before it starts Fandclip
+    private static final String MAIN_CLASS = "com.fandmc.fandclip.Main";
+    // The JVM reports the options from these as input arguments too, the child gets them from the command line only
+    private static final List<String> OPTIONS_VARIABLES = List.of("JDK_JAVA_OPTIONS", "JAVA_TOOL_OPTIONS", "_JAVA_OPTIONS");
+
+    private CdsLauncher() {
+    }
+
+    /**
+     * Runs the launcher in a child JVM with the archive and exits with its exit code.
+     * Returns without doing anything when the archive is disabled or this already is the child.
+     */
+    static void relaunch(final String[] args) {
+        if (!ENABLED || Boolean.getBoolean(CHILD_PROPERTY)) {
+            return;
+        }
+
+        final List<String> jvmArguments = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        for (final String argument : jvmArguments) {
+            if (argument.startsWith("-XX:SharedArchiveFile") || argument.startsWith("-XX:ArchiveClassesAtExit") || argument.startsWith("-Xshare")) {
+                LOGGER.info("Class data sharing is configured on the command line, not relaunching");
+                return;
+            }
+            // Agents and debuggers would run in both JVMs and fight over their ports
+            if (argument.startsWith("-javaagent") || argument.startsWith("-agentlib") || argument.startsWith("-agentpath") || argument.startsWith("-Xrunjdwp")) {
+                LOGGER.info("Not relaunching with class data sharing because of {}", argument);
+                return;
+            }
+        }
+
+        final Path archive;
+        try {
+            archive = findArchive();
+        } catch (final IOException e) {
+            LOGGER.warn("Failed to prepare the class data sharing archive, starting without it", e);
+            return;
+        }
+
+        final List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArguments);
+        command.add("-XX:SharedArchiveFile=" + archive);
+        command.add("-XX:+AutoCreateSharedArchive");
+        command.add("-D" + CHILD_PROPERTY + "=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MAIN_CLASS);
+        command.addAll(Arrays.asList(args));
+
+        if (Files.exists(archive)) {
+            LOGGER.info("Relaunching with class data sharing archive {}", archive);
+        } else {
+            LOGGER.info("Relaunching to train class data sharing archive {}, it is written when the server stops", archive);
+        }
+
+        final ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+        builder.environment().keySet().removeAll(OPTIONS_VARIABLES);
+        final Process child;
+        try {
+            child = builder.start();
+        } catch (final IOException e) {
+            LOGGER.warn("Failed to relaunch with class data sharing, starting without it", e);
+            return;
+        }
+
+        // Stopping the launcher has to stop the server gracefully, so it can save its worlds
+        final Thread stopChild = new Thread(() -> {
+            child.destroy();
+            try {
+                child.waitFor();
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Fandclip CDS Shutdown");
+        Runtime.getRuntime().addShutdownHook(stopChild);
+
+        int exitCode;
+        try {
+            exitCode = child.waitFor();
+        } catch (final InterruptedException e) {
+            exitCode = 1;
+        }
+        Runtime.getRuntime().removeShutdownHook(stopChild);
+        System.exit(exitCode);
+    }
+
+    private static Path findArchive() throws IOException {
+        final Path dir = Path.of(System.getProperty("bundlerRepoDir", "")).resolve("cache").resolve("cds");
+        Files.createDirectories(dir);
+        final String name = bundleKey() + ".jsa";
+
+        // Archives of earlier bundles are never used again
+        try (final DirectoryStream<Path> archives = Files.newDirectoryStream(dir, "*.jsa")) {
+            for (final Path old : archives) {
+                if (!old.getFileName().toString().equals(name)) {
+                    Files.deleteIfExists(old);
+                }
+            }
+        }
+        return dir.resolve(name);
+    }
+
+    /**
+     * Identifies the bundle and the JVM, the list files which describe the bundle live in the launcher and core jars
+     */
+    private static String bundleKey() throws IOException {
+        final StringBuilder key = new StringBuilder()
+                .append(System.getProperty("java.home")).append('\n')
+                .append(System.getProperty("java.vm.version")).append('\n');
+        for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            appendStamp(key, Path.of(entry));
+        }
+        if (AutoUpdate.useAutoUpdateJar) {
+            appendStamp(key, Path.of(AutoUpdate.autoUpdateCorePath));
+        }
+        return Util.toHex(Sha256.hash(key.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    }
+
+    private static void appendStamp(final StringBuilder key, final Path file) throws IOException {
+        final Path absolute = file.toAbsolutePath().normalize();
+        key.append(absolute);
+        if (Files.exists(absolute)) {
+            final BasicFileAttributes attributes = Files.readAttributes(absolute, BasicFileAttributes.class);
+            key.append('\t').append(attributes.size()).append('\t').append(attributes.lastModifiedTime().toMillis());
+        }
+        key.append('\n');
+    }
+}
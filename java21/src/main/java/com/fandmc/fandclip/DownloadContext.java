@@ -1,22 +1,44 @@
 package com.fandmc.fandclip;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.nio.channels.Channels;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static com.fandmc.fandclip.Fandclip.LOGGER;
 
 record DownloadContext(byte[] hash, URL url, String fileName) {
 
+    // Number of parallel HTTP range requests used for a fresh download, 1 disables segmented downloads
+    private static final int SEGMENTS = Integer.getInteger("fandclip.downloadSegments", 4);
+    private static final int RETRIES = Integer.getInteger("fandclip.downloadRetries", 5);
+    private static final long MIN_SEGMENT_SIZE = 4L << 20;
+    private static final long PROGRESS_INTERVAL = 8L << 20;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int TIMEOUT_MILLIS = 30_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     public Path getOutputFile(final Path outputDir) {
         final Path cacheDir = outputDir.resolve("cache");
         return cacheDir.resolve(this.fileName);
@@ -39,6 +61,13 @@ record DownloadContext(byte[] hash, URL url, String fileName) {
         }
     }
 
+    /**
+     * Downloads the file into {@code outputDir}, unless a valid copy is already there.
+     * <p>
+     * Data goes to a {@code .part} file first, which an interrupted download resumes from. Failed attempts are
+     * retried with an exponential backoff, up to {@code -Dfandclip.downloadRetries} times. That includes attempts
+     * which complete with the wrong hash, those start over from scratch.
+     */
     public void download(final Path outputDir) throws IOException {
         final Path outputFile = this.getOutputFile(outputDir);
         if (Files.exists(outputFile) && Util.isFileValid(outputFile, this.hash)) {
@@ -48,22 +77,321 @@ record DownloadContext(byte[] hash, URL url, String fileName) {
         if (!Files.isDirectory(outputFile.getParent())) {
             Files.createDirectories(outputFile.getParent());
         }
-        Files.deleteIfExists(outputFile);
 
         LOGGER.info("Downloading " + this.fileName);
 
+        final Path partFile = outputFile.resolveSibling(this.fileName + ".part");
+        final Path progressFile = progressFile(partFile);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                final byte[] actualHash = this.fetch(partFile, progressFile);
+                if (!Arrays.equals(actualHash, this.hash) && attempt < RETRIES) {
+                    // The data was corrupted in transit, or the upstream file changed since a resumed part was written
+                    Files.deleteIfExists(partFile);
+                    Files.deleteIfExists(progressFile);
+                    throw new IOException("Hash check failed for downloaded file " + this.fileName);
+                }
+                Util.commitFile(partFile, outputFile, actualHash, this.hash, "Hash check failed for downloaded file " + this.fileName);
+                return;
+            } catch (final IOException e) {
+                if (attempt >= RETRIES) {
+                    throw e;
+                }
+                final long backoff = Math.min(1000L << attempt, MAX_BACKOFF_MILLIS);
+                LOGGER.warn("Failed to download {}, retrying in {} ms ({}/{})", this.fileName, backoff, attempt + 1, RETRIES, e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading " + this.fileName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches the file into {@code partFile}, continuing from whatever a previous attempt left there.
+     *
+     * @return The hash of the complete file
+     */
+    private byte[] fetch(final Path partFile, final Path progressFile) throws IOException {
+        if (Files.exists(progressFile) && Files.exists(partFile)) {
+            final List<Segment> segments = Segment.read(progressFile);
+            // A part file shorter than the recorded progress didn't get the data the progress file claims
+            if (segments != null && Files.size(partFile) >= Segment.written(segments)) {
+                return this.fetchSegments(partFile, progressFile, segments);
+            }
+            Files.deleteIfExists(partFile);
+        }
+        Files.deleteIfExists(progressFile);
+
+        final long existing = Files.exists(partFile) ? Files.size(partFile) : 0;
+        final URLConnection connection = this.open(existing, -1);
+        if (!(connection instanceof HttpURLConnection http)) {
+            // Anything else, such as file: URLs, can only be resumed by skipping what we already have
+            return this.fetchSequential(connection, partFile, existing, true);
+        }
+
+        final int status = http.getResponseCode();
+        if (status == HttpURLConnection.HTTP_PARTIAL) {
+            return this.fetchSequential(connection, partFile, existing, false);
+        }
+        if (status == 416) {
+            http.disconnect();
+            Files.deleteIfExists(partFile);
+            throw new IOException("Server rejected the resume range for " + this.fileName);
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            http.disconnect();
+            throw new IOException("Unexpected response " + status + " for " + this.url);
+        }
+
+        final long length = http.getContentLengthLong();
+        if (SEGMENTS > 1 && length >= 2 * MIN_SEGMENT_SIZE && "bytes".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"))) {
+            http.disconnect();
+            final List<Segment> segments = Segment.split(length, (int) Math.min(SEGMENTS, length / MIN_SEGMENT_SIZE));
+            Segment.write(progressFile, segments);
+            return this.fetchSegments(partFile, progressFile, segments);
+        }
+        // The server ignored our range, or there was none
+        return this.fetchSequential(connection, partFile, 0, false);
+    }
+
+    private static Path progressFile(final Path partFile) {
+        return partFile.resolveSibling(partFile.getFileName() + ".progress");
+    }
+
+    private URLConnection open(final long start, final long end) throws IOException {
+        final URLConnection connection = this.url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (connection instanceof HttpURLConnection && (start > 0 || end >= 0)) {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end) : ""));
+        }
+        return connection;
+    }
+
+    /**
+     * Appends the response body to the first {@code offset} bytes of {@code partFile}, hashing the data as it arrives.
+     */
+    private byte[] fetchSequential(final URLConnection connection, final Path partFile, final long offset, final boolean skip) throws IOException {
+        final MessageDigest digest = Sha256.digest();
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
         try (
-                final ReadableByteChannel source = Channels.newChannel(this.url.openStream());
-                final FileChannel fileChannel = FileChannel.open(outputFile, CREATE, WRITE, TRUNCATE_EXISTING)
+                final InputStream in = connection.getInputStream();
+                final FileChannel out = FileChannel.open(partFile, CREATE, READ, WRITE)
         ) {
-            fileChannel.transferFrom(source, 0, Long.MAX_VALUE);
-        } catch (final IOException e) {
-            LOGGER.error("Failed to download {}", this.fileName, e);
-            System.exit(1);
+            if (skip) {
+                in.skipNBytes(offset);
+            }
+
+            // Hash what we already have, then continue inline
+            out.truncate(offset);
+            out.position(0);
+            while (out.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+
+            int read;
+            while ((read = in.read(buffer.array())) != -1) {
+                digest.update(buffer.array(), 0, read);
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Downloads the remaining parts of all segments in parallel, each with its own range request.
+     * Progress is saved next to the part file, so a later attempt continues where this one stopped.
+     * <p>
+     * One more worker hashes the file front to back while that happens, trailing the written data,
+     * so the hash is ready shortly after the last segment arrives.
+     */
+    private byte[] fetchSegments(final Path partFile, final Path progressFile, final List<Segment> segments) throws IOException {
+        final ExecutorService workers = Executors.newFixedThreadPool(segments.size() + 1, task -> {
+            final Thread thread = new Thread(task, "Fandclip Download");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final byte[] hash;
+        try (final FileChannel out = FileChannel.open(partFile, CREATE, READ, WRITE)) {
+            // Only the segments are hashed, anything an earlier, longer download left behind them has to go
+            out.truncate(segments.get(segments.size() - 1).end);
+            final Future<byte[]> hashResult = workers.submit(() -> hashSegments(out, segments));
+            final List<Future<Void>> results = new ArrayList<>(segments.size());
+            for (final Segment segment : segments) {
+                results.add(workers.submit(() -> {
+                    this.fetchSegment(out, segment, progressFile, segments);
+                    return null;
+                }));
+            }
+
+            IOException failure = null;
+            for (final Future<Void> result : results) {
+                try {
+                    Util.await(result);
+                } catch (final IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            Segment.write(progressFile, segments);
+            if (failure != null) {
+                throw failure;
+            }
+            hash = Util.await(hashResult);
+        } finally {
+            // Also stops the hashing worker if a segment failed
+            workers.shutdownNow();
+        }
+
+        Files.delete(progressFile);
+        return hash;
+    }
+
+    /**
+     * Hashes the segments in file order, reading each one back as soon as it has been written.
+     * The data is read right behind the download, so it still comes from the page cache.
+     */
+    private static byte[] hashSegments(final FileChannel in, final List<Segment> segments) throws IOException, InterruptedException {
+        final MessageDigest digest = Sha256.digest();
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (final Segment segment : segments) {
+            long hashed = segment.start;
+            while (hashed < segment.end) {
+                final long written;
+                synchronized (segments) {
+                    while (segment.position <= hashed) {
+                        segments.wait();
+                    }
+                    written = segment.position;
+                }
+                while (hashed < written) {
+                    buffer.limit((int) Math.min(BUFFER_SIZE, written - hashed));
+                    final int read = in.read(buffer, hashed);
+                    if (read == -1) {
+                        throw new IOException("Part file was truncated while hashing it");
+                    }
+                    hashed += read;
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private void fetchSegment(final FileChannel out, final Segment segment, final Path progressFile, final List<Segment> segments) throws IOException {
+        if (segment.position >= segment.end) {
+            return;
+        }
+
+        final URLConnection connection = this.open(segment.position, segment.end - 1);
+        if (!(connection instanceof HttpURLConnection http) || http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            throw new IOException("Server did not honor the range request for " + this.fileName);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long sinceSave = 0;
+        try (final InputStream in = connection.getInputStream()) {
+            int read;
+            while (segment.position < segment.end && (read = in.read(buffer.array(), 0, (int) Math.min(BUFFER_SIZE, segment.end - segment.position))) != -1) {
+                buffer.limit(read);
+                long position = segment.position;
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer, position);
+                }
+                buffer.clear();
+                synchronized (segments) {
+                    segment.position = position;
+                    segments.notifyAll();
+                }
+
+                sinceSave += read;
+                if (sinceSave >= PROGRESS_INTERVAL) {
+                    sinceSave = 0;
+                    Segment.write(progressFile, segments);
+                }
+            }
+        }
+        if (segment.position < segment.end) {
+            throw new IOException("Connection closed early while downloading " + this.fileName);
+        }
+    }
+
+    /**
+     * A byte range of the file, and how far it has been downloaded.
+     */
+    private static final class Segment {
+        final long start;
+        final long end;
+        volatile long position;
+
+        Segment(final long start, final long end, final long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        static List<Segment> split(final long length, final int count) {
+            final List<Segment> segments = new ArrayList<>(count);
+            final long size = length / count;
+            for (int i = 0; i < count; i++) {
+                final long start = i * size;
+                final long end = i == count - 1 ? length : start + size;
+                segments.add(new Segment(start, end, start));
+            }
+            return segments;
+        }
+
+        /**
+         * @return How far into the file data has been written
+         */
+        static long written(final List<Segment> segments) {
+            long written = 0;
+            for (final Segment segment : segments) {
+                if (segment.position > segment.start) {
+                    written = Math.max(written, segment.position);
+                }
+            }
+            return written;
+        }
+
+        static List<Segment> read(final Path progressFile) {
+            try (final BufferedReader reader = Files.newBufferedReader(progressFile)) {
+                final List<Segment> segments = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] parts = line.split("\t");
+                    segments.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                }
+                return segments.isEmpty() ? null : segments;
+            } catch (final IOException | RuntimeException e) {
+                LOGGER.warn("Ignoring unreadable download progress {}", progressFile, e);
+                return null;
+            }
         }
 
-        if (!Util.isFileValid(outputFile, this.hash)) {
-            throw new IllegalStateException("Hash check failed for downloaded file " + this.fileName);
+        static synchronized void write(final Path progressFile, final List<Segment> segments) throws IOException {
+            final Path tempFile = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+            try (final BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                for (final Segment segment : segments) {
+                    writer.write(segment.start + "\t" + segment.end + "\t" + segment.position);
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
     }
 }
@@ -23,10 +23,30 @@ import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class Fandclip {
     public static final Logger LOGGER = LoggerFactory.getLogger("Fandclip");
     private static final String DEFAULT_TWEAK = "org.spongepowered.asm.launch.MixinTweaker";
+    // The transformer MixinTweaker registers in the class loader
+    private static final String MIXIN_TRANSFORMER = "org.spongepowered.asm.mixin.transformer.Proxy";
+    // Used by the launcher right after the classpath is set up
+    private static final String[] WARM_UP_CLASSES = {
+            "launchwrapper.LaunchClassLoader",
+            "joptsimple.OptionParser",
+            "joptsimple.OptionSet",
+            "org.spongepowered.asm.mixin.MixinEnvironment",
+            "org.spongepowered.asm.mixin.Mixins",
+            "org.objectweb.asm.ClassReader",
+            "org.objectweb.asm.ClassWriter",
+    };
     public static LaunchClassLoader classLoader;
     public static Map<String, Object> blackboard = new HashMap<>();
 
@@ -34,6 +54,8 @@ public final class Fandclip {
         new Fandclip(args);
     }
 
+    // The tweakers phase is closed early, before the main phase starts
+    @SuppressWarnings("try")
     private Fandclip(final String[] args) {
         if (Path.of("").toAbsolutePath().toString().contains("!")) {
             LOGGER.error("Fandclip may not run in a directory containing '!'. Please rename the affected folder.");
@@ -43,11 +65,13 @@ public final class Fandclip {
         if (!Boolean.getBoolean("Fandclip.disable.auto-update")) {
             AutoUpdate.init();
         }
+        // Doesn't return when the server runs in a child JVM with a class data sharing archive
+        CdsLauncher.relaunch(args);
 
         final URL[] classpathUrls = setupClasspath();
 
         final ClassLoader parentClassLoader = Fandclip.class.getClassLoader().getParent();
-        classLoader = new LaunchClassLoader(classpathUrls, parentClassLoader);
+        classLoader = StartupProfile.call("classloader", () -> new LaunchClassLoader(classpathUrls, parentClassLoader));
 
         final OptionParser parser = new OptionParser();
         parser.allowsUnrecognizedOptions();
@@ -76,7 +100,7 @@ public final class Fandclip {
         final Set<String> visitedTweakerNames = new HashSet<>();
         // The 'definitive' list of tweakers
         final List<ITweaker> allTweakers = new ArrayList<>();
-        try {
+        try (StartupProfile.Step tweakers = StartupProfile.phase("tweakers")) {
             final List<ITweaker> pendingTweakers = new ArrayList<>(tweakClassNames.size() + 1);
             // The list of tweak instances - may be useful for interoperability
             blackboard.put("Tweaks", pendingTweakers);
@@ -103,8 +127,8 @@ public final class Fandclip {
 
                     // Ensure we allow the tweak class to load with the parent classloader
                     classLoader.getClassLoaderExclusions().add(tweakName.substring(0, tweakName.lastIndexOf('.')));
-                    final ITweaker tweaker = (ITweaker) Class.forName(tweakName, true, classLoader)
-                            .getConstructor().newInstance();
+                    final ITweaker tweaker = StartupProfile.call("tweakers", "load " + tweakName, () ->
+                            (ITweaker) Class.forName(tweakName, true, classLoader).getConstructor().newInstance());
                     pendingTweakers.add(tweaker);
 
                     // Remove the tweaker from the list of tweaker names we've processed this pass
@@ -117,14 +141,16 @@ public final class Fandclip {
                 }
 
                 // Configure environment to avoid warn
-                configureMixin();
+                StartupProfile.run("mixin", this::configureMixin);
 
                 // Now, iterate all the tweakers we just instantiated
                 while (!pendingTweakers.isEmpty()) {
                     final ITweaker tweaker = pendingTweakers.removeFirst();
                     LOGGER.info("Calling tweak class {}", tweaker.getClass().getName());
-                    tweaker.acceptOptions(options.valuesOf(nonOption));
-                    tweaker.injectIntoClassLoader(classLoader);
+                    StartupProfile.run("tweakers", "inject " + tweaker.getClass().getName(), () -> {
+                        tweaker.acceptOptions(options.valuesOf(nonOption));
+                        tweaker.injectIntoClassLoader(classLoader);
+                    });
                     allTweakers.add(tweaker);
                 }
                 // continue around the loop until there's no tweak classes
@@ -135,12 +161,22 @@ public final class Fandclip {
             for (final ITweaker tweaker : allTweakers) {
                 argumentList.addAll(Arrays.asList(tweaker.getLaunchArguments()));
             }
+            // The tweakers are done, what follows is timed by the main phase
+            tweakers.close();
+
+            // Lets the class loader skip Mixin for the classes none of its configs target
+            classLoader.wrapTransformer(MIXIN_TRANSFORMER, MixinTargetFilter::new);
 
             final String mainClassName = findMainClass();
             LOGGER.info("Starting {}", mainClassName);
 
             final Thread runThread = getServerMainThread(args, argumentList, mainClassName);
-            runThread.start();
+            // The main phase goes on in the server main thread, until the main method is invoked
+            StartupProfile.run("main", () -> {
+                // All transformers are registered by now, so traced classes can be defined ahead of the main thread
+                classLoader.preloadTracedClasses();
+                runThread.start();
+            });
         } catch (Exception e) {
             LOGGER.error("Unable to launch", e);
             System.exit(1);
@@ -151,10 +187,13 @@ public final class Fandclip {
         final Thread runThread = new Thread(() -> {
             try {
                 argumentList.addAll(Arrays.asList(args));
-                final Class<?> mainClass = Class.forName(mainClassName, true, classLoader);
-                final MethodHandle mainHandle = MethodHandles.lookup()
-                        .findStatic(mainClass, "main", MethodType.methodType(void.class, String[].class))
-                        .asFixedArity();
+                final MethodHandle mainHandle = StartupProfile.call("main", "load " + mainClassName, () -> {
+                    final Class<?> mainClass = Class.forName(mainClassName, true, classLoader);
+                    return MethodHandles.lookup()
+                            .findStatic(mainClass, "main", MethodType.methodType(void.class, String[].class))
+                            .asFixedArity();
+                });
+                StartupProfile.finish();
                 mainHandle.invoke((Object) argumentList.toArray(new String[0]));
             } catch (final Throwable t) {
                 throw Util.sneakyThrow(t);
@@ -171,6 +210,7 @@ public final class Fandclip {
 
     private static URL @NotNull [] setupClasspath() {
         final var repoDir = Path.of(System.getProperty("bundlerRepoDir", ""));
+        VerificationCache.load(repoDir);
 
         final PatchEntry[] patches = findPatches();
         final DownloadContext downloadContext = findDownloadContext();
@@ -178,24 +218,27 @@ public final class Fandclip {
             throw new IllegalArgumentException("patches.list file found without a corresponding original-url file");
         }
 
-        final Path baseFile;
-        if (downloadContext != null) {
-            try {
-                downloadContext.download(repoDir);
-            } catch (final IOException e) {
-                throw Util.fail("Failed to download original jar", e);
+        final Map<String, Map<String, URL>> classpathUrls;
+        final ExecutorService workerPool = newWorkerPool();
+        try {
+            if (workerPool != null) {
+                warmUp(workerPool);
             }
-            baseFile = downloadContext.getOutputFile(repoDir);
-        } else {
-            baseFile = null;
+            classpathUrls = extractAndApplyPatches(workerPool, downloadContext, patches, repoDir);
+        } finally {
+            if (workerPool != null) {
+                // Everything the classpath needs is done, let the warm up finish on its own
+                workerPool.shutdown();
+            }
+            AutoUpdate.closeCoreJars();
         }
-
-        final Map<String, Map<String, URL>> classpathUrls = extractAndApplyPatches(baseFile, patches, repoDir);
+        VerificationCache.save();
 
         // Exit if user has set `paperclip.patchonly`, `leavesclip.patchonly`, or `fandclip.patchonly` system property to `true`
         if (Boolean.getBoolean("paperclip.patchonly") ||
                 Boolean.getBoolean("leavesclip.patchonly") ||
                 Boolean.getBoolean("fandclip.patchonly")) {
+            StartupProfile.finish();
             System.exit(0);
         }
 
@@ -269,101 +312,259 @@ public final class Fandclip {
         }
     }
 
-    private static Map<String, Map<String, URL>> extractAndApplyPatches(final Path originalJar, final PatchEntry[] patches, final Path repoDir) {
-        if (originalJar == null && patches.length > 0) {
-            throw new IllegalArgumentException("Patch data found without patch target");
+    /**
+     * Runs the startup work as a graph of tasks rather than one phase after another.
+     * <p>
+     * The original jar downloads on its own thread. Files shipped in our jar are verified and extracted meanwhile,
+     * files taken from the original jar and all patches start as soon as it is there. So startup takes as long as the
+     * slowest chain, not as long as all phases together.
+     *
+     * @param workerPool Pool running the tasks, or {@code null} to run everything on the calling thread
+     */
+    private static Map<String, Map<String, URL>> extractAndApplyPatches(
+            final ExecutorService workerPool,
+            final DownloadContext downloadContext,
+            final PatchEntry[] patches,
+            final Path repoDir
+    ) {
+        // A single worker means the old behaviour: do everything on the calling thread
+        final Executor workers = workerPool != null ? workerPool : Runnable::run;
+        // Extraction workers may wait for the download, so it must not take one of their threads
+        final Executor downloader = workerPool != null ? task -> newWorkerThread(task, "Fandclip Download").start() : Runnable::run;
+
+        final CompletableFuture<FileSystem> originalJar;
+        if (downloadContext == null) {
+            originalJar = CompletableFuture.completedFuture(null);
+        } else {
+            originalJar = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return StartupProfile.call("download", () -> {
+                        downloadContext.download(repoDir);
+                        return FileSystems.newFileSystem(downloadContext.getOutputFile(repoDir));
+                    });
+                } catch (final IOException e) {
+                    throw Util.sneakyThrow(e);
+                }
+            }, downloader);
         }
-
-        // First extract any non-patch files
-        final Map<String, Map<String, URL>> urls = extractFiles(patches, originalJar, repoDir);
-
-        // Next apply any patches that we have
-        applyPatches(urls, patches, originalJar, repoDir);
-
-        return urls;
-    }
-
-    private static Map<String, Map<String, URL>> extractFiles(final PatchEntry[] patches, final Path originalJar, final Path repoDir) {
-        final var urls = new HashMap<String, Map<String, URL>>();
-
-        try {
-            final FileSystem originalJarFs;
-            if (originalJar == null) {
-                originalJarFs = null;
-            } else {
-                originalJarFs = FileSystems.newFileSystem(originalJar);
+        final CompletableFuture<Path> originalRootDir = originalJar.thenApply(fs -> fs == null ? null : fs.getPath("/"));
+
+        try (final PatchInputs inputs = new PatchInputs(repoDir.resolve("cache"))) {
+            // Linked maps, so the classpath follows the order of the list files and not the hash order
+            final var urls = new HashMap<String, Map<String, URL>>();
+            final var versionsMap = new LinkedHashMap<String, URL>();
+            urls.put("versions", versionsMap);
+            final var librariesMap = new LinkedHashMap<String, URL>();
+            urls.put("libraries", librariesMap);
+
+            final FileEntry[] versionEntries = findVersionEntries();
+            final List<Future<URL>> versionUrls = extractEntries(workers, patches, originalRootDir, repoDir, versionEntries, "versions");
+            final FileEntry[] libraryEntries = findLibraryEntries();
+            final List<Future<URL>> libraryUrls = extractEntries(workers, patches, originalRootDir, repoDir, libraryEntries, "libraries");
+            final List<Future<URL>> patchUrls = schedulePatches(workers, patches, originalRootDir, repoDir, inputs);
+
+            // Wait in phase order, so a failure is reported by the phase it started in
+            try {
+                Util.await(originalJar);
+            } catch (final IOException e) {
+                throw Util.fail("Failed to download original jar", e);
             }
-
             try {
-                final Path originalRootDir;
-                if (originalJarFs == null) {
-                    originalRootDir = null;
-                } else {
-                    originalRootDir = originalJarFs.getPath("/");
+                // Only the calling thread touches the maps, workers just hand back their URL
+                collectUrls(versionsMap, versionEntries, versionUrls);
+                collectUrls(librariesMap, libraryEntries, libraryUrls);
+            } catch (final IOException e) {
+                throw Util.fail("Failed to extract jar files", e);
+            }
+            try {
+                for (int i = 0; i < patches.length; i++) {
+                    // For the classpath, use the patched file instead of the original
+                    urls.get(patches[i].location()).put(patches[i].originalPath(), Util.await(patchUrls.get(i)));
                 }
-
-                final var versionsMap = new HashMap<String, URL>();
-                urls.putIfAbsent("versions", versionsMap);
-                final FileEntry[] versionEntries = findVersionEntries();
-                extractEntries(versionsMap, patches, originalRootDir, repoDir, versionEntries, "versions");
-
-                final FileEntry[] libraryEntries = findLibraryEntries();
-                final var librariesMap = new HashMap<String, URL>();
-                urls.putIfAbsent("libraries", librariesMap);
-                extractEntries(librariesMap, patches, originalRootDir, repoDir, libraryEntries, "libraries");
-            } finally {
-                if (originalJarFs != null) {
+            } catch (final IOException e) {
+                throw Util.fail("Failed to apply patches", e);
+            }
+            return urls;
+        } catch (final IOException e) {
+            throw Util.fail("Failed to apply patches", e);
+        } finally {
+            final FileSystem originalJarFs = originalJar.isCompletedExceptionally() ? null : originalJar.getNow(null);
+            if (originalJarFs != null) {
+                try {
                     originalJarFs.close();
+                } catch (final IOException e) {
+                    LOGGER.warn("Failed to close the original jar", e);
                 }
             }
-        } catch (final IOException e) {
-            throw Util.fail("Failed to extract jar files", e);
         }
-
-        return urls;
     }
 
-    private static void extractEntries(
-            final Map<String, URL> urls,
+    private static List<Future<URL>> extractEntries(
+            final Executor workers,
             final PatchEntry[] patches,
-            final Path originalRootDir,
+            final Future<Path> originalRootDir,
             final Path repoDir,
             final FileEntry[] entries,
             final String targetName
-    ) throws IOException {
+    ) {
         if (entries == null) {
-            return;
+            return List.of();
         }
 
         final String targetPath = "/META-INF/" + targetName;
         final Path targetDir = repoDir.resolve(targetName);
 
+        final List<Future<URL>> results = new ArrayList<>(entries.length);
         for (final FileEntry entry : entries) {
-            entry.extractFile(urls, patches, targetName, originalRootDir, targetPath, targetDir);
+            final FutureTask<URL> task = new FutureTask<>(() -> StartupProfile.call("extract", targetName + "/" + entry.path(),
+                    () -> entry.extractFile(patches, targetName, originalRootDir, targetPath, targetDir)));
+            workers.execute(task);
+            results.add(task);
+        }
+        return results;
+    }
+
+    private static void collectUrls(
+            final Map<String, URL> urls,
+            final FileEntry[] entries,
+            final List<Future<URL>> results
+    ) throws IOException {
+        for (int i = 0; i < results.size(); i++) {
+            final URL url = Util.await(results.get(i));
+            // null means the file will be created from a patch
+            if (url != null) {
+                urls.put(entries[i].path(), url);
+            }
+        }
+    }
+
+    /**
+     * Creates the pool used to extract files and apply patches, or {@code null} if only a single worker is configured.
+     * <p>
+     * The size defaults to the number of processors available to the JVM, which respects the
+     * container CPU quota, and can be changed with {@code -Dfandclip.workerThreads=<count>}.
+     */
+    private static ExecutorService newWorkerPool() {
+        final int threads = Integer.getInteger("fandclip.workerThreads", Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            return null;
         }
+
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, task -> newWorkerThread(task, "Fandclip Worker #" + counter.incrementAndGet()));
+    }
+
+    private static Thread newWorkerThread(final Runnable task, final String name) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
     }
 
-    private static void applyPatches(
-            final Map<String, Map<String, URL>> urls,
+    /**
+     * Loads the launcher classes needed right after the classpath is ready, while the workers are still busy
+     * with I/O. Classes are only loaded, not initialized, so this has no side effects.
+     */
+    private static void warmUp(final Executor workers) {
+        final ClassLoader loader = Fandclip.class.getClassLoader();
+        workers.execute(() -> StartupProfile.run("warmup", () -> {
+            for (final String className : WARM_UP_CLASSES) {
+                try {
+                    Class.forName(className, false, loader);
+                } catch (final ClassNotFoundException | LinkageError e) {
+                    LOGGER.debug("Failed to warm up {}", className, e);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Schedules every patch to start once the original jar is there, the most expensive ones first.
+     *
+     * @return The patched files, in the order of {@code patches}
+     */
+    private static List<Future<URL>> schedulePatches(
+            final Executor workers,
             final PatchEntry[] patches,
-            final Path originalJar,
-            final Path repoDir
+            final CompletableFuture<Path> originalRootDir,
+            final Path repoDir,
+            final PatchInputs inputs
     ) {
         if (patches.length == 0) {
-            return;
-        }
-        if (originalJar == null) {
-            throw new IllegalStateException("Patches provided without patch target");
+            return List.of();
         }
 
-        try (final FileSystem originalFs = FileSystems.newFileSystem(originalJar)) {
-            final Path originalRootDir = originalFs.getPath("/");
+        final List<FutureTask<URL>> results = new ArrayList<>(patches.length);
+        final long budget = patchMemoryBudget();
+        final Semaphore heapBudget = new Semaphore(toBudgetPermits(budget));
+        // Costs are only known once the original jar is there, tasks read them when they run
+        final long[] costs = new long[patches.length];
+        for (final PatchEntry patch : patches) {
+            final int index = results.size();
+            results.add(new FutureTask<>(() -> {
+                final Path root = Util.await(originalRootDir);
+                if (root == null) {
+                    throw new IllegalStateException("Patches provided without patch target");
+                }
+                return StartupProfile.call("patch", patch.location() + "/" + patch.outputPath(),
+                        () -> applyPatch(patch, root, repoDir, inputs, heapBudget, toBudgetPermits(costs[index])));
+            }));
+        }
 
-            for (final PatchEntry patch : patches) {
-                patch.applyPatch(urls, originalRootDir, repoDir);
+        originalRootDir.thenAccept(root -> {
+            // Start the most expensive patches first, the run can't finish before they do anyway
+            final Integer[] order = new Integer[patches.length];
+            for (int i = 0; i < patches.length; i++) {
+                try {
+                    costs[i] = root == null ? 0 : Math.min(patches[i].estimateHeapCost(root), budget);
+                } catch (final IOException e) {
+                    costs[i] = budget;
+                }
+                order[i] = i;
             }
-        } catch (final IOException e) {
-            throw Util.fail("Failed to apply patches", e);
+            Arrays.sort(order, Comparator.comparingLong((Integer i) -> costs[i]).reversed());
+            for (final int i : order) {
+                workers.execute(results.get(i));
+            }
+        });
+        return List.copyOf(results);
+    }
+
+    private static URL applyPatch(
+            final PatchEntry patch,
+            final Path originalRootDir,
+            final Path repoDir,
+            final PatchInputs inputs,
+            final Semaphore heapBudget,
+            final int permits
+    ) throws IOException, InterruptedException {
+        final URL applied = patch.findAppliedPatch(repoDir);
+        if (applied != null) {
+            return applied;
+        }
+
+        // A patch bigger than the budget takes all of it, so it runs on its own
+        heapBudget.acquire(permits);
+        try {
+            return patch.applyPatch(originalRootDir, repoDir, inputs);
+        } finally {
+            heapBudget.release(permits);
         }
     }
+
+    /**
+     * Heap in bytes that patches being applied at the same time may use together.
+     * Defaults to half of the max heap, and can be set in MiB with {@code -Dfandclip.patchMemoryBudget=<size>}.
+     */
+    private static long patchMemoryBudget() {
+        final Long budget = Long.getLong("fandclip.patchMemoryBudget");
+        if (budget != null) {
+            return budget << 20;
+        }
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    private static int toBudgetPermits(final long bytes) {
+        // Permits are KiB, so even a large heap fits into an int
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes >> 10));
+    }
 }
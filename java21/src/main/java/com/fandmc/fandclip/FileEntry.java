@@ -2,7 +2,6 @@ package com.fandmc.fandclip;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
@@ -10,7 +9,7 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.concurrent.Future;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
@@ -47,31 +46,38 @@ record FileEntry(byte[] hash, String id, String path) {
         }
     }
 
-    void extractFile(
-            final Map<String, URL> urls,
+    /**
+     * Extracts this file into {@code outputDir}, unless a valid copy is already there.
+     * <p>
+     * This is called from several extraction workers at once, so it must not touch any shared state.
+     * The original jar is only waited for if this file isn't in our jar.
+     *
+     * @return The URL of the extracted file, or {@code null} if the file will be created from a patch
+     */
+    URL extractFile(
             final PatchEntry[] patches,
             final String targetName,
-            final Path originalRootDir,
+            final Future<Path> originalJarRoot,
             final String baseDir,
             final Path outputDir
     ) throws IOException {
         for (final PatchEntry patch : patches) {
             if (patch.location().equals(targetName) && patch.outputPath().equals(this.path)) {
                 // This file will be created from a patch
-                return;
+                return null;
             }
         }
 
         final Path outputFile = outputDir.resolve(this.path);
         if (Files.exists(outputFile) && Util.isFileValid(outputFile, this.hash)) {
-            urls.put(this.path, outputFile.toUri().toURL());
-            return;
+            return outputFile.toUri().toURL();
         }
 
         final String filePath = Util.endingSlash(baseDir) + this.path;
-        InputStream fileStream = AutoUpdate.getResourceAsStream(AutoUpdate.autoUpdateCorePath, filePath);
-        if (fileStream == null) {
+        ReadableByteChannel fileChannel = AutoUpdate.getResourceAsChannel(AutoUpdate.autoUpdateCorePath, filePath);
+        if (fileChannel == null) {
             // This file is not in our jar, but may be in the original
+            final Path originalRootDir = Util.await(originalJarRoot);
             if (originalRootDir == null) {
                 // no original jar was provided (we are not running in patcher mode)
                 // This is an invalid situation
@@ -83,26 +89,29 @@ record FileEntry(byte[] hash, String id, String path) {
                 throw new IllegalStateException(this.path + " not found in our jar or in the original jar");
             }
 
-            fileStream = Files.newInputStream(originalFile);
+            fileChannel = Channels.newChannel(Files.newInputStream(originalFile));
         }
 
         if (!Files.isDirectory(outputFile.getParent())) {
             Files.createDirectories(outputFile.getParent());
         }
-        Files.deleteIfExists(outputFile);
 
-        try (
-                final InputStream stream = fileStream;
-                final ReadableByteChannel inputChannel = Channels.newChannel(stream);
-                final FileChannel outputChannel = FileChannel.open(outputFile, CREATE, WRITE, TRUNCATE_EXISTING)
-        ) {
-            outputChannel.transferFrom(inputChannel, 0, Long.MAX_VALUE);
-        }
-
-        if (!Util.isFileValid(outputFile, this.hash)) {
-            throw new IllegalStateException("Hash check failed for extract filed " + outputFile);
+        // Hash while copying, and only move the file into place once it is known to be good
+        final Path tempFile = Util.tempFile(outputFile);
+        final byte[] actualHash;
+        try {
+            try (
+                    final ReadableByteChannel inputChannel = fileChannel;
+                    final FileChannel outputChannel = FileChannel.open(tempFile, CREATE, WRITE, TRUNCATE_EXISTING)
+            ) {
+                actualHash = Sha256.copy(inputChannel, outputChannel);
+            }
+            Util.commitFile(tempFile, outputFile, actualHash, this.hash, "Hash check failed for extract filed " + outputFile);
+        } catch (final IOException | RuntimeException | Error e) {
+            Util.deleteTempFile(tempFile, e);
+            throw e;
         }
 
-        urls.put(this.path, outputFile.toUri().toURL());
+        return outputFile.toUri().toURL();
     }
 }
@@ -0,0 +1,87 @@
+package com.fandmc.fandclip;
+
+import launchwrapper.IClassTransformer;
+import launchwrapper.ITargetedClassTransformer;
+import org.jetbrains.annotations.NotNull;
+import org.spongepowered.asm.mixin.MixinEnvironment;
+import org.spongepowered.asm.mixin.Mixins;
+import org.spongepowered.asm.mixin.extensibility.IMixinConfig;
+import org.spongepowered.asm.mixin.transformer.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Wraps the Mixin transformer, so the class loader can skip it for classes no mixin config targets.
+ * <p>
+ * Mixin fills the targets of a config while it prepares it, inside its own transformation. Until that is over
+ * every class is a target. The targets are only read after a transformation which started in the
+ * {@link MixinEnvironment.Phase#DEFAULT} phase, with every config already visited, has returned. By then the configs
+ * are prepared and won't change again, and the union of their targets is copied once. Any config added later makes
+ * every class a target again, until the next transformation has prepared it.
+ * <p>
+ * Classes in the mixin packages stay targets, Mixin rejects those when they are loaded directly.
+ */
+final class MixinTargetFilter implements ITargetedClassTransformer {
+
+    private final IClassTransformer transformer;
+    private volatile Targets targets;
+
+    MixinTargetFilter(final IClassTransformer transformer) {
+        this.transformer = transformer;
+    }
+
+    @Override
+    public boolean isTarget(@NotNull final String name, @NotNull final String transformedName) {
+        final Targets targets = this.targets;
+        return targets == null || targets.configCount() != Mixins.getConfigs().size() || targets.matches(transformedName);
+    }
+
+    @Override
+    public byte[] transform(final String name, final String transformedName, final byte[] basicClass) {
+        final int configCount = this.targets == null || this.targets.configCount() != Mixins.getConfigs().size() ? settledConfigCount() : -1;
+        final byte[] transformed = this.transformer.transform(name, transformedName, basicClass);
+        if (configCount != -1 && configCount == Mixins.getConfigs().size() && Mixins.getUnvisitedCount() == 0) {
+            this.targets = Targets.of(configCount);
+        }
+        return transformed;
+    }
+
+    /**
+     * @return The number of configs, if they all are visited in the last phase, otherwise -1
+     */
+    private static int settledConfigCount() {
+        if (MixinEnvironment.getCurrentEnvironment().getPhase() != MixinEnvironment.Phase.DEFAULT || Mixins.getUnvisitedCount() != 0) {
+            return -1;
+        }
+        return Mixins.getConfigs().size();
+    }
+
+    private record Targets(int configCount, Set<String> classes, List<String> packages) {
+
+        static Targets of(final int configCount) {
+            final Set<String> classes = new HashSet<>();
+            final List<String> packages = new ArrayList<>();
+            for (final Config config : Mixins.getConfigs()) {
+                final IMixinConfig mixinConfig = config.getConfig();
+                classes.addAll(mixinConfig.getTargets());
+                packages.add(mixinConfig.getMixinPackage());
+            }
+            return new Targets(configCount, Set.copyOf(classes), List.copyOf(packages));
+        }
+
+        boolean matches(final String className) {
+            if (this.classes.contains(className)) {
+                return true;
+            }
+            for (final String mixinPackage : this.packages) {
+                if (className.startsWith(mixinPackage)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
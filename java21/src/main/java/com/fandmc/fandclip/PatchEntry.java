@@ -19,10 +19,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.file.StandardOpenOption.*;
 
@@ -35,7 +40,11 @@ record PatchEntry(
         String patchPath,
         String outputPath
 ) {
-    private static boolean announced = false;
+    // Apply patches with StreamingPatch instead of jbsdiff, which keeps the heap flat regardless of the jar size
+    private static final boolean STREAMING = Boolean.getBoolean("fandclip.streamingPatch");
+    private static final long STREAMING_HEAP_COST = 16L << 20;
+
+    private static final AtomicBoolean announced = new AtomicBoolean();
 
     static PatchEntry[] parse(final BufferedReader reader) throws IOException {
         var result = new PatchEntry[8];
@@ -85,30 +94,57 @@ record PatchEntry(
         );
     }
 
-    void applyPatch(final Map<String, Map<String, URL>> urls, final Path originalRootDir, final Path repoDir) throws IOException {
+    /**
+     * Checks whether a previous run already produced a valid output file for this patch.
+     *
+     * @return The URL of the patched file, or {@code null} if the patch still has to be applied
+     */
+    URL findAppliedPatch(final Path repoDir) throws IOException {
+        final Path outputFile = repoDir.resolve(this.location).resolve(this.outputPath);
+        if (Files.exists(outputFile) && Util.isFileValid(outputFile, this.outputHash)) {
+            return outputFile.toUri().toURL();
+        }
+        return null;
+    }
+
+    /**
+     * Estimates the heap needed to apply this patch. jbsdiff holds the original file,
+     * the patch and the output in memory at once, and the output is about the size of the original.
+     * The streaming engine only needs a fixed amount of buffers.
+     */
+    long estimateHeapCost(final Path originalRootDir) throws IOException {
+        if (STREAMING) {
+            // Chunk buffers plus the state of three bzip2 decompressors
+            return STREAMING_HEAP_COST;
+        }
+        final Path inputFile = originalRootDir.resolve("META-INF").resolve(this.location).resolve(this.originalPath);
+        return Files.exists(inputFile) ? Files.size(inputFile) * 3 : 0;
+    }
+
+    /**
+     * Applies this patch, whether or not a valid output file already exists.
+     *
+     * @param inputs The original files of this run, shared between patches so each original is only read once
+     * @return The URL of the patched file
+     */
+    URL applyPatch(final Path originalRootDir, final Path repoDir, final PatchInputs inputs) throws IOException {
         final Path inputDir = originalRootDir.resolve("META-INF").resolve(this.location);
         final Path targetDir = repoDir.resolve(this.location);
 
         final Path inputFile = inputDir.resolve(this.originalPath);
         final Path outputFile = targetDir.resolve(this.outputPath);
 
-        // Short-cut if the patch is already applied
-        if (Files.exists(outputFile) && Util.isFileValid(outputFile, this.outputHash)) {
-            // For the classpath, use the patched file instead of the original
-            urls.get(this.location).put(this.originalPath, outputFile.toUri().toURL());
-            return;
-        }
-
-        if (!announced) {
+        if (announced.compareAndSet(false, true)) {
             System.out.println("Applying patches");
-            announced = true;
         }
 
         // Verify input file is correct
         if (Files.notExists(inputFile)) {
             throw new IllegalStateException("Input file not found: " + inputFile);
         }
-        if (!Util.isFileValid(inputFile, this.originalHash)) {
+        // Reading the original at random positions needs a real file, copying it out of the original jar also hashes it
+        final Path originalCopy = STREAMING ? inputs.copy(inputFile) : null;
+        if (!Arrays.equals(inputs.hash(inputFile), this.originalHash)) {
             throw new IllegalStateException("Hash check of input file failed for " + inputFile);
         }
 
@@ -118,33 +154,68 @@ record PatchEntry(
         if (patchStream == null) {
             throw new IllegalStateException("Patch file not found: " + fullPatchPath);
         }
-        final byte[] patchBytes = Util.readFully(patchStream);
-        if (!Util.isDataValid(patchBytes, this.patchHash)) {
-            throw new IllegalStateException("Hash check of patch file failed for " + fullPatchPath);
-        }
 
-        final byte[] originalBytes = Util.readBytes(inputFile);
+        Path patchFile = null;
         try {
-            if (!Files.isDirectory(outputFile.getParent())) {
-                Files.createDirectories(outputFile.getParent());
+            final byte[] patchBytes;
+            if (STREAMING) {
+                patchBytes = null;
+                patchFile = inputs.newTempFile("patch-");
+                final byte[] hash;
+                try (
+                        final ReadableByteChannel in = Channels.newChannel(patchStream);
+                        final FileChannel out = FileChannel.open(patchFile, WRITE)
+                ) {
+                    hash = Sha256.copy(in, out);
+                }
+                if (!Arrays.equals(hash, this.patchHash)) {
+                    throw new IllegalStateException("Hash check of patch file failed for " + fullPatchPath);
+                }
+            } else {
+                patchBytes = Util.readFully(patchStream);
+                if (!Util.isDataValid(patchBytes, this.patchHash)) {
+                    throw new IllegalStateException("Hash check of patch file failed for " + fullPatchPath);
+                }
             }
-            try (
-                    final OutputStream outStream =
-                            new BufferedOutputStream(Files.newOutputStream(outputFile, CREATE, WRITE, TRUNCATE_EXISTING))
-            ) {
-                Patch.patch(originalBytes, patchBytes, outStream);
-            }
-        } catch (final CompressorException | InvalidHeaderException | IOException e) {
-            // Don't move this `catch` clause to the outer try-with-resources
-            // the Util.fail method never returns, so `close()` would never get called
-            throw Util.fail("Failed to patch " + inputFile, e);
-        }
 
-        if (!Util.isFileValid(outputFile, this.outputHash)) {
-            throw new IllegalStateException("Patch not applied correctly for " + this.outputPath);
+            final byte[] originalBytes = STREAMING ? null : Util.readBytes(inputFile);
+            // The output is hashed as it is written, and only moved into place once it is known to be good
+            final Path tempFile = Util.tempFile(outputFile);
+            final MessageDigest outputDigest = Sha256.digest();
+            try {
+                if (!Files.isDirectory(outputFile.getParent())) {
+                    Files.createDirectories(outputFile.getParent());
+                }
+                try (
+                        final OutputStream outStream = new BufferedOutputStream(
+                                new DigestOutputStream(Files.newOutputStream(tempFile, CREATE, WRITE, TRUNCATE_EXISTING), outputDigest)
+                        )
+                ) {
+                    if (STREAMING) {
+                        StreamingPatch.patch(originalCopy, patchFile, outStream);
+                    } else {
+                        Patch.patch(originalBytes, patchBytes, outStream);
+                    }
+                }
+                Util.commitFile(tempFile, outputFile, outputDigest.digest(), this.outputHash, "Patch not applied correctly for " + this.outputPath);
+            } catch (final CompressorException | InvalidHeaderException | IOException e) {
+                // Don't move this `catch` clause to the outer try-with-resources
+                // the Util.fail method never returns, so `close()` would never get called
+                Util.deleteTempFile(tempFile, e);
+                if (patchFile != null) {
+                    Util.deleteTempFile(patchFile, e);
+                }
+                throw Util.fail("Failed to patch " + inputFile, e);
+            } catch (final RuntimeException | Error e) {
+                Util.deleteTempFile(tempFile, e);
+                throw e;
+            }
+        } finally {
+            if (patchFile != null) {
+                Files.deleteIfExists(patchFile);
+            }
         }
 
-        // For the classpath, use the patched file instead of the original
-        urls.get(this.location).put(this.originalPath, outputFile.toUri().toURL());
+        return outputFile.toUri().toURL();
     }
 }
@@ -0,0 +1,82 @@
+package com.fandmc.fandclip;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Original files used by the patches of one run, shared so that an original used by several patches
+ * is only hashed, or copied out of the original jar, once.
+ */
+final class PatchInputs implements AutoCloseable {
+
+    private final Path tempDir;
+    private final ConcurrentMap<Path, FutureTask<byte[]>> hashes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, FutureTask<Path>> copies = new ConcurrentHashMap<>();
+
+    PatchInputs(final Path tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Gets the SHA-256 hash of {@code inputFile}.
+     */
+    byte[] hash(final Path inputFile) throws IOException {
+        return Util.await(once(this.hashes, inputFile, () -> Sha256.hash(inputFile)));
+    }
+
+    /**
+     * Copies {@code inputFile} out of the original jar onto the default file system, so the patch can read it at random positions.
+     * The copy is hashed on the way, which also counts as the verification of the input.
+     */
+    Path copy(final Path inputFile) throws IOException {
+        return Util.await(once(this.copies, inputFile, () -> {
+            final Path copy = this.newTempFile("original-");
+            final byte[] hash;
+            try (
+                    final ReadableByteChannel in = Channels.newChannel(Files.newInputStream(inputFile));
+                    final FileChannel out = FileChannel.open(copy, WRITE)
+            ) {
+                hash = Sha256.copy(in, out);
+            }
+            final FutureTask<byte[]> known = new FutureTask<>(() -> hash);
+            known.run();
+            this.hashes.putIfAbsent(inputFile, known);
+            return copy;
+        }));
+    }
+
+    Path newTempFile(final String prefix) throws IOException {
+        Files.createDirectories(this.tempDir);
+        return Files.createTempFile(this.tempDir, prefix, ".tmp");
+    }
+
+    private static <T> FutureTask<T> once(final ConcurrentMap<Path, FutureTask<T>> map, final Path key, final Callable<T> action) {
+        final FutureTask<T> task = new FutureTask<>(action);
+        final FutureTask<T> existing = map.putIfAbsent(key, task);
+        if (existing != null) {
+            return existing;
+        }
+        task.run();
+        return task;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final FutureTask<Path> copy : this.copies.values()) {
+            if (copy.state() == Future.State.SUCCESS) {
+                Files.deleteIfExists(copy.resultNow());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.fandmc.fandclip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hashing of files and streams with a constant amount of memory.
+ * <p>
+ * Every thread gets its own digest and read buffer, so files can be verified from several workers
+ * at once without ever holding a whole file on the heap.
+ */
+final class Sha256 {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(Sha256::newDigest);
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private Sha256() {
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw Util.fail("Could not create hashing instance", e);
+        }
+    }
+
+    /**
+     * Gets the digest of the current thread, reset and ready for use.
+     */
+    static MessageDigest digest() {
+        final MessageDigest digest = DIGEST.get();
+        digest.reset();
+        return digest;
+    }
+
+    static byte[] hash(final byte[] data) {
+        return digest().digest(data);
+    }
+
+    static byte[] hash(final Path file) throws IOException {
+        return hash(Files.newInputStream(file));
+    }
+
+    static byte[] hash(final InputStream in) throws IOException {
+        try (in) {
+            final MessageDigest digest = digest();
+            final byte[] buffer = BUFFER.get();
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                total += read;
+            }
+            StartupProfile.read(total);
+            return digest.digest();
+        }
+    }
+
+    /**
+     * Copies everything from {@code in} to {@code out}, hashing the data on the way through.
+     *
+     * @return The hash of the copied data
+     */
+    static byte[] copy(final ReadableByteChannel in, final WritableByteChannel out) throws IOException {
+        final MessageDigest digest = digest();
+        final ByteBuffer buffer = ByteBuffer.wrap(BUFFER.get());
+        long total = 0;
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            total += buffer.limit();
+            digest.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+        StartupProfile.read(total);
+        return digest.digest();
+    }
+}
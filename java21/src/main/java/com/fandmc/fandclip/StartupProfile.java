@@ -0,0 +1,269 @@
+package com.fandmc.fandclip;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * Records where the launcher spends its time before handing off to the server.
+ * <p>
+ * Phases and their steps are timestamped relative to the start of the launcher, together with the bytes they read
+ * and wrote. When the server main class is about to be invoked, a one-line summary is logged, and a JSON report is
+ * written to {@code -Dfandclip.startupProfile=<path>} if that is set.
+ */
+final class StartupProfile {
+
+    private static final long ORIGIN = System.nanoTime();
+    private static final String REPORT_PATH = System.getProperty("fandclip.startupProfile");
+
+    private static final Queue<Step> steps = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Step> current = new ThreadLocal<>();
+    private static final AtomicBoolean finished = new AtomicBoolean();
+
+    private static final LongAdder bytesRead = new LongAdder();
+    private static final LongAdder bytesWritten = new LongAdder();
+    private static final LongAdder verifiedFiles = new LongAdder();
+    private static final LongAdder verifiedFromCache = new LongAdder();
+    private static final LongAdder verifyNanos = new LongAdder();
+
+    private StartupProfile() {
+    }
+
+    /**
+     * Runs {@code task} as a phase of the startup.
+     */
+    static <X extends Throwable> void run(final String phase, final Action<X> task) throws X {
+        run(phase, null, task);
+    }
+
+    /**
+     * Runs {@code task} as a step of {@code phase}.
+     */
+    static <X extends Throwable> void run(final String phase, final String name, final Action<X> task) throws X {
+        final Step step = step(phase, name);
+        try {
+            task.run();
+        } finally {
+            step.close();
+        }
+    }
+
+    /**
+     * Runs {@code task} as a phase of the startup and returns its result.
+     */
+    static <T, X extends Throwable> T call(final String phase, final Task<T, X> task) throws X {
+        return call(phase, null, task);
+    }
+
+    /**
+     * Runs {@code task} as a step of {@code phase} and returns its result.
+     */
+    static <T, X extends Throwable> T call(final String phase, final String name, final Task<T, X> task) throws X {
+        final Step step = step(phase, name);
+        try {
+            return task.call();
+        } finally {
+            step.close();
+        }
+    }
+
+    /**
+     * Starts a phase of the startup, closing the returned step ends it. Closing it again does nothing.
+     */
+    static Step phase(final String phase) {
+        return step(phase, null);
+    }
+
+    /**
+     * Starts a step of {@code phase}, such as a single file being extracted. Steps may run on any thread.
+     */
+    static Step step(final String phase, final String name) {
+        final Step step = new Step(phase, name, Thread.currentThread().getName(), current.get());
+        current.set(step);
+        steps.add(step);
+        return step;
+    }
+
+    static void read(final long bytes) {
+        bytesRead.add(bytes);
+        final Step step = current.get();
+        if (step != null) {
+            step.read += bytes;
+        }
+    }
+
+    static void written(final long bytes) {
+        bytesWritten.add(bytes);
+        final Step step = current.get();
+        if (step != null) {
+            step.written += bytes;
+        }
+    }
+
+    static void verified(final long nanos, final boolean fromCache) {
+        verifiedFiles.increment();
+        verifyNanos.add(nanos);
+        if (fromCache) {
+            verifiedFromCache.increment();
+        }
+    }
+
+    /**
+     * Logs the summary and writes the report. Only the first call does anything.
+     */
+    static void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        final long end = System.nanoTime();
+
+        final Map<String, List<Step>> phases = new LinkedHashMap<>();
+        for (final Step step : steps) {
+            phases.computeIfAbsent(step.phase, p -> new ArrayList<>()).add(step);
+        }
+
+        final StringBuilder summary = new StringBuilder("Startup took ").append(millis(end - ORIGIN)).append(" ms:");
+        for (final Map.Entry<String, List<Step>> phase : phases.entrySet()) {
+            summary.append(' ').append(phase.getKey()).append(' ').append(millis(span(phase.getValue(), end))).append(" ms,");
+        }
+        summary.append(" verified ").append(verifiedFiles.sum()).append(" files (").append(verifiedFromCache.sum()).append(" cached),")
+                .append(" read ").append(bytesRead.sum() >> 20).append(" MiB,")
+                .append(" wrote ").append(bytesWritten.sum() >> 20).append(" MiB");
+        LOGGER.info(summary.toString());
+
+        if (REPORT_PATH == null) {
+            return;
+        }
+        final Path report = Path.of(REPORT_PATH);
+        try (final Writer writer = Files.newBufferedWriter(report)) {
+            writer.write("{\n  \"totalMillis\": " + millis(end - ORIGIN) + ",\n");
+            writer.write("  \"bytesRead\": " + bytesRead.sum() + ",\n");
+            writer.write("  \"bytesWritten\": " + bytesWritten.sum() + ",\n");
+            writer.write("  \"verify\": {\"files\": " + verifiedFiles.sum() + ", \"fromCache\": " + verifiedFromCache.sum()
+                    + ", \"millis\": " + millis(verifyNanos.sum()) + "},\n");
+            writer.write("  \"phases\": [");
+            boolean firstPhase = true;
+            for (final Map.Entry<String, List<Step>> phase : phases.entrySet()) {
+                writer.write(firstPhase ? "\n" : ",\n");
+                firstPhase = false;
+                long phaseRead = 0;
+                long phaseWritten = 0;
+                for (final Step step : phase.getValue()) {
+                    phaseRead += step.read;
+                    phaseWritten += step.written;
+                }
+                writer.write("    {\"name\": " + quote(phase.getKey()) + ", \"startMillis\": " + millis(start(phase.getValue()) - ORIGIN)
+                        + ", \"millis\": " + millis(span(phase.getValue(), end))
+                        + ", \"bytesRead\": " + phaseRead + ", \"bytesWritten\": " + phaseWritten + ", \"steps\": [");
+                boolean firstStep = true;
+                for (final Step step : phase.getValue()) {
+                    if (step.name == null) {
+                        continue;
+                    }
+                    writer.write(firstStep ? "\n" : ",\n");
+                    firstStep = false;
+                    writer.write("      {\"name\": " + quote(step.name) + ", \"thread\": " + quote(step.thread)
+                            + ", \"startMillis\": " + millis(step.start - ORIGIN) + ", \"millis\": " + millis(step.end(end) - step.start)
+                            + ", \"bytesRead\": " + step.read + ", \"bytesWritten\": " + step.written + "}");
+                }
+                writer.write(firstStep ? "]}" : "\n    ]}");
+            }
+            writer.write("\n  ]\n}\n");
+        } catch (final IOException e) {
+            LOGGER.warn("Failed to write startup profile to {}", report, e);
+        }
+    }
+
+    private static long start(final List<Step> phase) {
+        long start = Long.MAX_VALUE;
+        for (final Step step : phase) {
+            start = Math.min(start, step.start);
+        }
+        return start;
+    }
+
+    /**
+     * Wall time from the first step of a phase starting to the last one ending; steps on workers overlap.
+     */
+    private static long span(final List<Step> phase, final long now) {
+        long end = Long.MIN_VALUE;
+        for (final Step step : phase) {
+            end = Math.max(end, step.end(now));
+        }
+        return end - start(phase);
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String quote(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    @FunctionalInterface
+    interface Action<X extends Throwable> {
+        void run() throws X;
+    }
+
+    @FunctionalInterface
+    interface Task<T, X extends Throwable> {
+        T call() throws X;
+    }
+
+    static final class Step implements AutoCloseable {
+        private final String phase;
+        private final String name;
+        private final String thread;
+        private final Step parent;
+        private final long start = System.nanoTime();
+        private volatile long end;
+        // Only updated by the thread running the step
+        private long read;
+        private long written;
+
+        private Step(final String phase, final String name, final String thread, final Step parent) {
+            this.phase = phase;
+            this.name = name;
+            this.thread = thread;
+            this.parent = parent;
+        }
+
+        private long end(final long now) {
+            final long end = this.end;
+            return end == 0 ? now : end;
+        }
+
+        @Override
+        public void close() {
+            if (this.end != 0) {
+                return;
+            }
+            this.end = System.nanoTime();
+            current.set(this.parent);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.fandmc.fandclip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Stored (uncompressed) entries of a jar, read with positional reads from one file channel.
+ * <p>
+ * Only the central directory is parsed, just enough to find where the data of each stored entry starts.
+ * Compressed entries are left to the zip file system. Zip64 jars are not supported, {@link #open(Path)}
+ * returns null for those.
+ */
+final class StoredJarEntries implements Closeable {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIZE = 30;
+
+    private final FileChannel channel;
+    // Offset of the local header in the high half, size of the data in the low half
+    private final Map<String, Long> entries;
+
+    private StoredJarEntries(final FileChannel channel, final Map<String, Long> entries) {
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+     * @return The stored entries of the jar, or null if it has none or its central directory can't be read
+     */
+    static StoredJarEntries open(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, READ);
+        try {
+            final Map<String, Long> entries = readDirectory(channel);
+            if (entries == null || entries.isEmpty()) {
+                channel.close();
+                return null;
+            }
+            return new StoredJarEntries(channel, entries);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Map<String, Long> readDirectory(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size < END_SIZE) {
+            return null;
+        }
+
+        // The end record is followed by a comment of at most 64 KiB
+        final int tailSize = (int) Math.min(size, END_SIZE + 0xFFFF);
+        final ByteBuffer tail = read(channel, size - tailSize, tailSize);
+        int end = -1;
+        for (int position = tailSize - END_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_SIGNATURE) {
+                end = position;
+                break;
+            }
+        }
+        if (end == -1) {
+            return null;
+        }
+        final int count = Short.toUnsignedInt(tail.getShort(end + 10));
+        final long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        final long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+        if (count == 0xFFFF || directoryOffset + directorySize > size - tailSize + end) {
+            return null;
+        }
+
+        final ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+        final Map<String, Long> entries = new HashMap<>();
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_SIGNATURE) {
+                return null;
+            }
+            final int method = Short.toUnsignedInt(directory.getShort(position + 10));
+            final long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+            final long uncompressedSize = Integer.toUnsignedLong(directory.getInt(position + 24));
+            final int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            final int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            final int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            final long offset = Integer.toUnsignedLong(directory.getInt(position + 42));
+            if (position + CENTRAL_SIZE + nameLength > directory.limit()) {
+                return null;
+            }
+
+            final byte[] nameBytes = new byte[nameLength];
+            directory.get(position + CENTRAL_SIZE, nameBytes);
+            final String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (method == 0 && uncompressedSize == compressedSize && uncompressedSize < Integer.MAX_VALUE
+                    && offset < Integer.MAX_VALUE && !name.endsWith("/")) {
+                entries.put(name, offset << 32 | uncompressedSize);
+            }
+
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * @param name Name of the entry, without a leading slash
+     * @return A channel over the data of the entry, or null if it isn't a stored entry
+     */
+    ReadableByteChannel channel(final String name) throws IOException {
+        final Long entry = this.entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final long offset = entry >>> 32;
+        final long size = entry & 0xFFFFFFFFL;
+
+        final ByteBuffer header = read(this.channel, offset, LOCAL_SIZE);
+        if (header.getInt(0) != LOCAL_SIGNATURE) {
+            return null;
+        }
+        final long start = offset + LOCAL_SIZE + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+        if (start + size > this.channel.size()) {
+            return null;
+        }
+        return new EntryChannel(this.channel, start, start + size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long position, final int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Unexpected end of jar file");
+            }
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * A range of the jar file. It only does positional reads, so any number of them can share the jar's channel.
+     */
+    private static final class EntryChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private boolean open = true;
+
+        EntryChannel(final FileChannel channel, final long start, final long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            if (!this.open) {
+                throw new ClosedChannelException();
+            }
+            if (this.position >= this.end) {
+                return -1;
+            }
+            final int limit = dst.limit();
+            if (dst.remaining() > this.end - this.position) {
+                dst.limit(dst.position() + (int) (this.end - this.position));
+            }
+            try {
+                final int read = this.channel.read(dst, this.position);
+                if (read == -1) {
+                    throw new EOFException("Unexpected end of jar file");
+                }
+                this.position += read;
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() {
+            // The jar's channel stays open for the other entries
+            this.open = false;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.fandmc.fandclip;
+
+import io.sigpipe.jbsdiff.InvalidHeaderException;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Applies a bsdiff patch in the same format as jbsdiff's {@code Patch}, but without holding any of the files on the heap.
+ * <p>
+ * The original file is read in chunks with positional reads at the positions the patch asks for, the control, diff and
+ * extra blocks are each decompressed from their own stream over the patch file, and the output is streamed out in small
+ * chunks. Nothing is memory mapped, so nothing stays open once the patch is applied and the files can be moved or
+ * deleted right after.
+ */
+final class StreamingPatch {
+
+    private static final String HEADER_MAGIC = "BSDIFF40";
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_SIZE = 8;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private StreamingPatch() {
+    }
+
+    static void patch(final Path originalFile, final Path patchFile, final OutputStream out)
+            throws CompressorException, InvalidHeaderException, IOException {
+        final int controlLength;
+        final int diffLength;
+        final int outputLength;
+        try (final InputStream headerIn = Channels.newInputStream(FileChannel.open(patchFile, READ))) {
+            final byte[] magic = headerIn.readNBytes(HEADER_MAGIC.length());
+            if (!HEADER_MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+                throw new InvalidHeaderException("Header missing magic number");
+            }
+            controlLength = readOffset(headerIn);
+            diffLength = readOffset(headerIn);
+            outputLength = readOffset(headerIn);
+        }
+        if (controlLength < 0 || diffLength < 0 || outputLength < 0) {
+            throw new InvalidHeaderException("Negative block length in header");
+        }
+
+        final CompressorStreamFactory compressor = new CompressorStreamFactory();
+        try (
+                final FileChannel originalChannel = FileChannel.open(originalFile, READ);
+                final InputStream controlIn = openBlock(compressor, patchFile, HEADER_SIZE);
+                final InputStream diffIn = openBlock(compressor, patchFile, HEADER_SIZE + controlLength);
+                final InputStream extraIn = openBlock(compressor, patchFile, (long) HEADER_SIZE + controlLength + diffLength)
+        ) {
+            final long originalSize = originalChannel.size();
+            if (originalSize > Integer.MAX_VALUE) {
+                throw new IOException("Original files over 2 GiB are not supported");
+            }
+            final int originalLength = (int) originalSize;
+
+            final byte[] chunk = new byte[CHUNK_SIZE];
+            final byte[] originalChunk = new byte[CHUNK_SIZE];
+            int newPosition = 0;
+            int oldPosition = 0;
+            while (newPosition < outputLength) {
+                final int diffBlock = readOffset(controlIn);
+                final int extraBlock = readOffset(controlIn);
+                final int seek = readOffset(controlIn);
+                if (diffBlock < 0 || extraBlock < 0 || (long) newPosition + diffBlock + extraBlock > outputLength) {
+                    throw new IOException("Corrupt patch; control block out of range at " + newPosition);
+                }
+
+                // Diff string, added byte-wise to the old data
+                for (int remaining = diffBlock; remaining > 0; ) {
+                    final int length = Math.min(remaining, CHUNK_SIZE);
+                    readFully(diffIn, chunk, length);
+
+                    final int from = Math.max(oldPosition, 0);
+                    final int to = (int) Math.min((long) oldPosition + length, originalLength);
+                    if (from < to) {
+                        readFully(originalChannel, from, originalChunk, to - from);
+                        for (int i = from - oldPosition, j = 0; j < to - from; i++, j++) {
+                            chunk[i] += originalChunk[j];
+                        }
+                    }
+
+                    out.write(chunk, 0, length);
+                    remaining -= length;
+                    oldPosition += length;
+                    newPosition += length;
+                }
+
+                // Extra string, copied as-is
+                for (int remaining = extraBlock; remaining > 0; ) {
+                    final int length = Math.min(remaining, CHUNK_SIZE);
+                    readFully(extraIn, chunk, length);
+                    out.write(chunk, 0, length);
+                    remaining -= length;
+                    newPosition += length;
+                }
+
+                oldPosition += seek;
+            }
+        }
+    }
+
+    /**
+     * Opens a decompressing stream over the block of the patch starting at {@code position}.
+     */
+    private static InputStream openBlock(final CompressorStreamFactory compressor, final Path file, final long position)
+            throws CompressorException, IOException {
+        final FileChannel channel = FileChannel.open(file, READ);
+        try {
+            // Compressor detection needs mark support
+            return compressor.createCompressorInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel.position(position)), CHUNK_SIZE));
+        } catch (final CompressorException | IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final long position, final byte[] buffer, final int length) throws IOException {
+        final ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("Original file ended at " + (position + target.position()));
+            }
+        }
+    }
+
+    private static void readFully(final InputStream in, final byte[] buffer, final int length) throws IOException {
+        final int read = in.readNBytes(buffer, 0, length);
+        if (read < length) {
+            throw new IOException("Corrupt patch; bytes expected = " + length + " bytes read = " + read);
+        }
+    }
+
+    /**
+     * Reads a bsdiff offset, a little-endian sign-magnitude integer.
+     */
+    private static int readOffset(final InputStream in) throws IOException {
+        final byte[] bytes = in.readNBytes(OFFSET_SIZE);
+        if (bytes.length < OFFSET_SIZE) {
+            throw new IOException("Could not read offset.");
+        }
+
+        long value = bytes[7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Integer overflow: 64-bit offsets not supported.");
+        }
+        return (bytes[7] & 0x80) != 0 ? (int) -value : (int) value;
+    }
+}
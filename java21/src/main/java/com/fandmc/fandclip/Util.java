@@ -3,9 +3,12 @@ package com.fandmc.fandclip;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.fandmc.fandclip.Fandclip.LOGGER;
 
@@ -14,16 +17,6 @@ class Util {
     private Util() {
     }
 
-    public static MessageDigest sha256Digest = getSha256Digest();
-
-    private static MessageDigest getSha256Digest() {
-        try {
-            return MessageDigest.getInstance("SHA-256");
-        } catch (final NoSuchAlgorithmException e) {
-            throw fail("Could not create hashing instance", e);
-        }
-    }
-
     static byte[] readBytes(final Path file) {
         try {
             return readFully(Files.newInputStream(file));
@@ -49,6 +42,20 @@ class Util {
         }
     }
 
+    static <T> T await(final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a worker");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw sneakyThrow(e.getCause());
+        }
+    }
+
     static String readResourceText(final String path) throws IOException {
         final String p;
         if (path.startsWith("/")) {
@@ -71,17 +78,68 @@ class Util {
     }
 
     static boolean isDataValid(final byte[] data, final byte[] hash) {
-        return Arrays.equals(hash, sha256Digest.digest(data));
+        return Arrays.equals(hash, Sha256.hash(data));
     }
 
     static boolean isFileValid(final Path file, final byte[] hash) {
         if (Files.exists(file)) {
-            final byte[] fileBytes = readBytes(file);
-            return isDataValid(fileBytes, hash);
+            final long start = System.nanoTime();
+            try {
+                // Read the attributes first, so a change while hashing invalidates the cache entry
+                final BasicFileAttributes attributes = VerificationCache.attributes(file);
+                if (VerificationCache.isVerified(file, attributes, hash)) {
+                    StartupProfile.verified(System.nanoTime() - start, true);
+                    return true;
+                }
+                final boolean valid = Arrays.equals(hash, Sha256.hash(file));
+                if (valid) {
+                    VerificationCache.record(file, attributes, hash);
+                }
+                StartupProfile.verified(System.nanoTime() - start, false);
+                return valid;
+            } catch (final IOException e) {
+                throw fail("Failed to read all of the data from " + file.toAbsolutePath(), e);
+            }
         }
         return false;
     }
 
+    static Path tempFile(final Path outputFile) {
+        return outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+    }
+
+    /**
+     * Removes the partly written {@code tempFile} after {@code failure}, without hiding the failure.
+     */
+    static void deleteTempFile(final Path tempFile, final Throwable failure) {
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (final IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Moves a freshly written file from {@code tempFile} to {@code outputFile}, if its hash matches.
+     * Otherwise the temp file is removed and the launch fails with {@code failureMessage}.
+     */
+    static void commitFile(
+            final Path tempFile,
+            final Path outputFile,
+            final byte[] actualHash,
+            final byte[] expectedHash,
+            final String failureMessage
+    ) throws IOException {
+        if (!Arrays.equals(actualHash, expectedHash)) {
+            Files.deleteIfExists(tempFile);
+            throw new IllegalStateException(failureMessage);
+        }
+        Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        StartupProfile.written(Files.size(outputFile));
+        // We just hashed it, no need to do that again on the next start
+        VerificationCache.record(outputFile, VerificationCache.attributes(outputFile), expectedHash);
+    }
+
     static byte[] fromHex(final String s) {
         if (s.length() % 2 != 0) {
             throw new IllegalArgumentException("Length of hex " + s + " must be divisible by two");
@@ -100,6 +158,10 @@ class Util {
         }
     }
 
+    static String toHex(final byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
     private static int getHexValue(final char c) {
         final int i = Character.digit(c, 16);
         if (i < 0) {
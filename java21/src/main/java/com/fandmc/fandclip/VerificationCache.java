@@ -0,0 +1,135 @@
+package com.fandmc.fandclip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * On-disk index of files in the bundler repo dir which already passed a hash check.
+ * <p>
+ * Each entry records the size, modification time and file key the file had when it was hashed. As long as
+ * none of those changed, the file is trusted without reading it again. Set {@code -Dfandclip.strictVerification=true}
+ * to hash every file regardless; the index is still updated in that case.
+ */
+final class VerificationCache {
+
+    private static final boolean STRICT = Boolean.getBoolean("fandclip.strictVerification");
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static Path repoDir;
+    private static Path indexFile;
+    private static volatile boolean dirty = false;
+
+    private VerificationCache() {
+    }
+
+    static void load(final Path bundlerRepoDir) {
+        repoDir = bundlerRepoDir.toAbsolutePath().normalize();
+        indexFile = repoDir.resolve("cache").resolve("verified.list");
+        if (Files.notExists(indexFile)) {
+            return;
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(indexFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 5);
+                if (parts.length != 5) {
+                    continue;
+                }
+                entries.put(parts[4], new Entry(Long.parseLong(parts[1]), parts[2], parts[3], Util.fromHex(parts[0])));
+            }
+        } catch (final IOException | RuntimeException e) {
+            // The index is only an optimization, start over with an empty one
+            LOGGER.warn("Ignoring unreadable verification index {}", indexFile, e);
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    static void save() {
+        if (indexFile == null || !dirty) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(indexFile.getParent());
+            final Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            try (final BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    if (Files.notExists(Path.of(entry.getKey()))) {
+                        continue;
+                    }
+                    final Entry value = entry.getValue();
+                    writer.write(Util.toHex(value.hash()) + "\t" + value.size() + "\t" + value.modified() + "\t" + value.fileKey() + "\t" + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (final IOException e) {
+            LOGGER.warn("Failed to save verification index {}", indexFile, e);
+        }
+    }
+
+    /**
+     * Reads the attributes used to identify an unchanged file.
+     *
+     * @return The attributes, or {@code null} if {@code file} is not covered by the index
+     */
+    static BasicFileAttributes attributes(final Path file) throws IOException {
+        if (repoDir == null || file.getFileSystem() != FileSystems.getDefault()) {
+            return null;
+        }
+        if (!file.toAbsolutePath().normalize().startsWith(repoDir)) {
+            return null;
+        }
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    static boolean isVerified(final Path file, final BasicFileAttributes attributes, final byte[] hash) {
+        if (STRICT || attributes == null) {
+            return false;
+        }
+        final Entry entry = entries.get(key(file));
+        return entry != null && entry.matches(attributes) && Arrays.equals(entry.hash(), hash);
+    }
+
+    /**
+     * Records that {@code file} had the given hash at the time {@code attributes} were read.
+     */
+    static void record(final Path file, final BasicFileAttributes attributes, final byte[] hash) {
+        if (attributes == null) {
+            return;
+        }
+        entries.put(key(file), new Entry(attributes.size(), attributes.lastModifiedTime().toString(), String.valueOf(attributes.fileKey()), hash));
+        dirty = true;
+    }
+
+    private static String key(final Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private record Entry(long size, String modified, String fileKey, byte[] hash) {
+        boolean matches(final BasicFileAttributes attributes) {
+            return this.size == attributes.size()
+                    && this.modified.equals(attributes.lastModifiedTime().toString())
+                    && this.fileKey.equals(String.valueOf(attributes.fileKey()));
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cache of raw class bytes, in two parts.
+ * <p>
+ * Bytes read to define a class are only needed until the class is defined, so
+ * {@link LaunchClassLoader} releases them right after. Until then they are held in flight, outside of the budget
+ * and the eviction order, so a burst of parallel loads doesn't flush anything else. Their total is bounded by
+ * the number of classes being defined at once.
+ * <p>
+ * Bytes handed out through {@link LaunchClassLoader#getClassBytes(String)} are shared with transformers, which often
+ * read the same classes again. Those are kept after the class is defined, in a least recently used cache bounded by
+ * the total size of the kept bytes.
+ * <p>
+ * Shared bytes can be kept deflated ({@code legacy.classBytesCacheCompress}) and outside of the heap
+ * ({@code legacy.classBytesCacheOffHeap}), they are inflated again on every hit. Bytes about to be
+ * released are always kept as they are, compressing them would only cost time.
+ */
+public final class ClassBytesCache {
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private final long budget;
+    private final boolean compress;
+    private final boolean offHeap;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    // Not shared so far, dropped once their class is defined
+    private final HashMap<String, Entry> inFlight = new HashMap<>();
+    private long inFlightBytes;
+    // Size of the compacted entries before and after compacting them
+    private long compactedRawBytes;
+    private long compactedBytes;
+
+    private long hits;
+    private long hitNanos;
+    private long misses;
+    private long evictions;
+    private long releases;
+
+    ClassBytesCache(long budget, boolean compress, boolean offHeap) {
+        this.budget = budget;
+        this.compress = compress;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param shared Whether the bytes are handed out to other code, which keeps them cached after the class is defined
+     */
+    byte @Nullable [] get(@NotNull String name, boolean shared) {
+        final long start = System.nanoTime();
+        final Entry entry;
+        synchronized (this) {
+            final Entry kept = entries.get(name);
+            if (kept != null) {
+                entry = kept;
+            } else {
+                entry = inFlight.get(name);
+                if (entry == null) {
+                    misses++;
+                    return null;
+                }
+                // Handed out now, so it is kept after the class is defined, and has to fit the budget
+                if (shared && entry.size() <= budget) {
+                    inFlight.remove(name);
+                    inFlightBytes -= entry.size();
+                    entry.shared = true;
+                    add(name, entry);
+                }
+            }
+        }
+        // Inflating doesn't need the lock, entries are never changed, only replaced
+        final byte[] data = entry.bytes();
+        synchronized (this) {
+            hits++;
+            hitNanos += System.nanoTime() - start;
+        }
+        return data;
+    }
+
+    void put(@NotNull String name, byte @NotNull [] data, boolean shared) {
+        // Never let a single class flush the whole cache
+        if (shared && data.length > budget)
+            return;
+
+        final Entry entry = shared ? compact(data) : new Entry(data);
+        entry.shared = shared;
+        synchronized (this) {
+            if (shared) {
+                final Entry previous = inFlight.remove(name);
+                if (previous != null)
+                    inFlightBytes -= previous.size();
+                add(name, entry);
+            } else if (!entries.containsKey(name)) {
+                final Entry previous = inFlight.put(name, entry);
+                if (previous != null)
+                    inFlightBytes -= previous.size();
+                inFlightBytes += entry.size();
+            }
+        }
+    }
+
+    /**
+     * Drops the bytes of a class that has been defined, unless they were shared.
+     * Shared bytes stay, and are compacted now that they will be kept for a while.
+     */
+    void release(@NotNull String name) {
+        final Entry entry;
+        synchronized (this) {
+            final Entry released = inFlight.remove(name);
+            if (released != null) {
+                inFlightBytes -= released.size();
+                releases++;
+                return;
+            }
+            entry = entries.get(name);
+            if (entry == null) {
+                return;
+            }
+        }
+        if (entry.compacted() || (!compress && !offHeap)) {
+            return;
+        }
+
+        final Entry compacted = compact(entry.data);
+        compacted.shared = true;
+        synchronized (this) {
+            // Unless it was replaced or evicted meanwhile
+            if (entries.get(name) == entry) {
+                add(name, compacted);
+            }
+        }
+    }
+
+    @NotNull
+    synchronized Stats stats() {
+        return new Stats(entries.size(), bytes, budget, inFlight.size(), inFlightBytes, hits, misses, evictions, releases,
+                hits == 0 ? 0 : hitNanos / hits,
+                compactedBytes == 0 ? 1 : (double) compactedRawBytes / compactedBytes);
+    }
+
+    private void add(@NotNull String name, @NotNull Entry entry) {
+        final Entry previous = entries.put(name, entry);
+        if (previous != null) {
+            bytes -= previous.size();
+            if (previous.compacted()) {
+                compactedRawBytes -= previous.length;
+                compactedBytes -= previous.size();
+            }
+        }
+        bytes += entry.size();
+        if (entry.compacted()) {
+            compactedRawBytes += entry.length;
+            compactedBytes += entry.size();
+        }
+
+        final Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > budget) {
+            final Entry evicted = eldest.next();
+            bytes -= evicted.size();
+            if (evicted.compacted()) {
+                compactedRawBytes -= evicted.length;
+                compactedBytes -= evicted.size();
+            }
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    @NotNull
+    private Entry compact(byte @NotNull [] data) {
+        if (!compress && !offHeap) {
+            return new Entry(data);
+        }
+
+        byte[] stored = data;
+        if (compress) {
+            final Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            // Class files usually shrink to less than half, anything that doesn't fit isn't worth it
+            final byte[] buffer = new byte[data.length];
+            final int size = deflater.deflate(buffer);
+            if (deflater.finished()) {
+                stored = Arrays.copyOf(buffer, size);
+            }
+        }
+        final boolean deflated = stored != data;
+
+        if (offHeap) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(stored.length).put(stored).flip();
+            return new Entry(null, buffer, data.length, deflated);
+        }
+        return new Entry(stored, null, data.length, deflated);
+    }
+
+    /**
+     * Snapshot of the cache occupancy and counters
+     *
+     * @param entries          Number of classes kept after their definition
+     * @param bytes            Total size of the kept classes, as stored
+     * @param budget           Maximum total size of the kept classes
+     * @param inFlightEntries  Number of classes being defined, whose bytes are dropped right after
+     * @param inFlightBytes    Total size of the classes being defined, outside of the budget
+     * @param hits             Lookups answered from the cache
+     * @param misses           Lookups that had to read the class
+     * @param evictions        Entries dropped to stay within the budget
+     * @param releases         Entries dropped because their class was defined
+     * @param averageHitNanos  Average time a hit took, including inflating the bytes
+     * @param compressionRatio Size of the compacted classes divided by the size they are stored in
+     */
+    public record Stats(int entries, long bytes, long budget, int inFlightEntries, long inFlightBytes,
+                        long hits, long misses, long evictions, long releases, long averageHitNanos, double compressionRatio) {
+        @Override
+        public String toString() {
+            return String.format("%d classes, %d/%d KiB, %d in flight (%d KiB), %d hits (%d ns each), %d misses, %d evictions, %d releases, %.1fx compression",
+                    entries, bytes >> 10, budget >> 10, inFlightEntries, inFlightBytes >> 10, hits, averageHitNanos, misses, evictions, releases, compressionRatio);
+        }
+    }
+
+    private static final class Entry {
+        // Exactly one of these is set
+        private final byte[] data;
+        private final ByteBuffer buffer;
+        private final int length;
+        private final boolean deflated;
+        private boolean shared;
+
+        private Entry(byte[] data) {
+            this(data, null, data.length, false);
+        }
+
+        private Entry(byte[] data, ByteBuffer buffer, int length, boolean deflated) {
+            this.data = data;
+            this.buffer = buffer;
+            this.length = length;
+            this.deflated = deflated;
+        }
+
+        private boolean compacted() {
+            return deflated || buffer != null;
+        }
+
+        private int size() {
+            return data != null ? data.length : buffer.capacity();
+        }
+
+        private byte @NotNull [] bytes() {
+            if (!deflated) {
+                if (data != null) {
+                    return data;
+                }
+                final byte[] copy = new byte[length];
+                buffer.get(0, copy);
+                return copy;
+            }
+
+            final Inflater inflater = inflaters.get();
+            inflater.reset();
+            if (data != null) {
+                inflater.setInput(data);
+            } else {
+                inflater.setInput(buffer.duplicate());
+            }
+            final byte[] result = new byte[length];
+            try {
+                int off = 0;
+                while (off < length && !inflater.finished()) {
+                    final int n = inflater.inflate(result, off, length - off);
+                    if (n == 0 && inflater.needsInput()) {
+                        throw new DataFormatException("Truncated");
+                    }
+                    off += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Cached class bytes are corrupt", e);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * Saves transformed classes for {@code legacy.debugClassLoadingSave} without blocking class loading.
+ * <p>
+ * Classes are queued and written in batches by a background thread, either as a directory tree or into a single jar
+ * ({@code legacy.classDumpFormat=jar}). Only classes matching {@code legacy.classDumpFilter} (comma separated
+ * prefixes) are saved, and {@code legacy.classDumpSampling=N} keeps one in every N of them. When the queue
+ * ({@code legacy.classDumpQueueSize}) is full, classes are dropped rather than waited for.
+ */
+final class ClassDumpWriter {
+    private static final boolean JAR = "jar".equalsIgnoreCase(System.getProperty("legacy.classDumpFormat"));
+    private static final String FILTER = System.getProperty("legacy.classDumpFilter", "");
+    private static final int SAMPLING = Math.max(1, Integer.getInteger("legacy.classDumpSampling", 1));
+    private static final int QUEUE_SIZE = Integer.getInteger("legacy.classDumpQueueSize", 4096);
+    private static final int BATCH_SIZE = 256;
+    private static final Dump END = new Dump("", new byte[0]);
+
+    private final Path path;
+    private final PrefixSet filter = new PrefixSet();
+    private final BlockingQueue<Dump> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong seen = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    ClassDumpWriter(@NotNull Path path) {
+        this.path = JAR ? path.resolveSibling(path.getFileName() + ".jar") : path;
+        for (final String prefix : FILTER.split(",")) {
+            if (!prefix.isBlank()) {
+                filter.add(prefix.trim());
+            }
+        }
+
+        this.writer = new Thread(this::run, "Class Dump Writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        // The jar is unreadable without its central directory
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "Class Dump Writer Shutdown"));
+    }
+
+    /**
+     * Queues a transformed class to be saved, if it passes the filter and sampling
+     */
+    void save(@NotNull String transformedName, byte @NotNull [] data) {
+        if (closed || (!filter.isEmpty() && !filter.matches(transformedName))) {
+            return;
+        }
+        if (seen.getAndIncrement() % SAMPLING != 0) {
+            return;
+        }
+        if (!queue.offer(new Dump(transformedName, data))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the classes that are still queued and closes the dump
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(END);
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try (final Sink sink = JAR ? new JarSink(path) : new DirectorySink(path)) {
+            LOGGER.info("DEBUG_SAVE Enabled, saving classes to \"{}\"", path);
+            final List<Dump> batch = new ArrayList<>(BATCH_SIZE);
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (final Dump dump : batch) {
+                    if (dump == END) {
+                        return;
+                    }
+                    try {
+                        sink.write(dump);
+                    } catch (IOException e) {
+                        LOGGER.warn("Could not save transformed class \"{}\"", dump.name(), e);
+                    }
+                }
+                sink.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to set up DEBUG_SAVE", e);
+        } catch (InterruptedException ignored) {
+        } finally {
+            closed = true;
+            queue.clear();
+            if (dropped.get() > 0) {
+                LOGGER.warn("DEBUG_SAVE dropped {} classes because the dump queue was full", dropped.get());
+            }
+        }
+    }
+
+    private record Dump(String name, byte[] data) {
+    }
+
+    private interface Sink extends AutoCloseable {
+        void write(@NotNull Dump dump) throws IOException;
+
+        default void flush() throws IOException {
+        }
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final class DirectorySink implements Sink {
+        private final Path root;
+        private final Set<Path> directories = new HashSet<>();
+
+        DirectorySink(@NotNull Path root) throws IOException {
+            this.root = root;
+            if (Files.exists(root)) {
+                try (final Stream<Path> files = Files.walk(root)) {
+                    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+            Files.createDirectories(root);
+        }
+
+        @Override
+        public void write(@NotNull Dump dump) throws IOException {
+            final Path classFile = root.resolve(dump.name().replace('.', File.separatorChar) + ".class");
+            final Path dir = classFile.getParent();
+            if (directories.add(dir)) {
+                Files.createDirectories(dir);
+            }
+            Files.write(classFile, dump.data());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class JarSink implements Sink {
+        private final ZipOutputStream out;
+        private final Set<String> entries = new HashSet<>();
+
+        JarSink(@NotNull Path file) throws IOException {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            this.out = new ZipOutputStream(Files.newOutputStream(file));
+        }
+
+        @Override
+        public void write(@NotNull Dump dump) throws IOException {
+            final String entry = dump.name().replace('.', '/') + ".class";
+            if (!entries.add(entry)) {
+                LOGGER.warn("Transformed class \"{}\" was already saved, keeping the first one", dump.name());
+                return;
+            }
+            out.putNextEntry(new ZipEntry(entry));
+            out.write(dump.data());
+            out.closeEntry();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
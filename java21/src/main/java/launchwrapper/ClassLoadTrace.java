@@ -0,0 +1,147 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * Trace of the classes requested during startup, in the order they were first requested.
+ * <p>
+ * Every start records a new trace for a while ({@code legacy.classTraceDuration} seconds) and then writes it
+ * to the trace file. If a trace from an earlier start exists, {@link #preload(Consumer)} replays it on worker
+ * threads, so classes are read and transformed before the main thread asks for them.
+ */
+final class ClassLoadTrace {
+    private static final long DURATION = TimeUnit.SECONDS.toMillis(Long.getLong("legacy.classTraceDuration", 60));
+    private static final int THREADS = Integer.getInteger("legacy.classTraceThreads", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final Path file;
+    private final List<String> previous;
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private final Set<String> recorded = ConcurrentHashMap.newKeySet();
+    private volatile boolean recording = true;
+
+    /**
+     * @param onStop Called once recording stops, and with it preloading
+     */
+    ClassLoadTrace(@NotNull Path file, @NotNull Runnable onStop) {
+        this.file = file;
+        List<String> lines = List.of();
+        if (Files.exists(file)) {
+            try {
+                lines = Files.readAllLines(file);
+            } catch (IOException e) {
+                LOGGER.warn("Ignoring unreadable class trace {}", file, e);
+            }
+        }
+        this.previous = lines;
+
+        final Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(DURATION);
+            } catch (InterruptedException e) {
+                return;
+            }
+            recording = false;
+            save();
+            onStop.run();
+        }, "Class Trace Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    void record(@NotNull String name) {
+        if (recording && recorded.add(name))
+            order.add(name);
+    }
+
+    /**
+     * Loads the classes of the previous trace on worker threads, in the order they were requested back then
+     *
+     * @param loader Loads one class, must not throw
+     */
+    void preload(@NotNull Consumer<String> loader) {
+        if (previous.isEmpty())
+            return;
+
+        LOGGER.debug("Preloading {} classes on {} threads", previous.size(), THREADS);
+        // Workers share one position, so the trace is loaded in order no matter how many threads there are
+        final AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < THREADS; i++) {
+            final Thread worker = new Thread(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < previous.size()) {
+                    loader.accept(previous.get(index));
+                }
+            }, "Class Preloader #" + (i + 1));
+            worker.setDaemon(true);
+            worker.setPriority(Thread.NORM_PRIORITY - 1);
+            worker.start();
+        }
+    }
+
+    private void save() {
+        final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                for (final String name : order) {
+                    writer.write(name);
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("Wrote trace of {} classes to {}", order.size(), file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write class trace {}", file, e);
+        } finally {
+            order.clear();
+            recorded.clear();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * Index of which jars of the class loader contain which packages.
+ * <p>
+ * A class lookup goes straight to the jars that have its package, in class path order, instead of
+ * asking every jar; missing classes of unknown packages cost a single map lookup. The index can only
+ * answer while every source is a local jar, otherwise {@link #isComplete()} is false and lookups
+ * have to go through {@link java.net.URLClassLoader#findResource(String)}.
+ * <p>
+ * The package lists can be seeded from an index file ({@code legacy.classIndex}), so jars which never
+ * provide a class don't even have to be opened. Jars whose size doesn't match the index file are scanned,
+ * and the file is rewritten to include them.
+ */
+final class ClassPathIndex implements Closeable {
+    // Use this if memory mapping jars causes trouble, stored classes are then read through JarFile like the others
+    private static final boolean MAP_JARS = !Boolean.getBoolean("legacy.dontMapJars");
+
+    private final Map<String, Source[]> packages = new ConcurrentHashMap<>();
+    private final List<Source> sources = new ArrayList<>();
+    private volatile boolean complete = true;
+
+    @Nullable
+    private final Path seedFile;
+    private final Map<String, Seed> seeds = new HashMap<>();
+    private boolean seedOutdated;
+
+    ClassPathIndex(@Nullable Path seedFile) {
+        this.seedFile = seedFile;
+        if (seedFile != null && Files.exists(seedFile)) {
+            readSeeds(seedFile);
+        }
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Adds a source after all the sources that were already added
+     */
+    synchronized void add(@NotNull URL url) {
+        if (!complete)
+            return;
+
+        final Path file = toJarFile(url);
+        if (file == null) {
+            LOGGER.debug("Class path entry {} is not a local jar, class lookups won't use the index", url);
+            complete = false;
+            packages.clear();
+            return;
+        }
+
+        final Source source;
+        final Set<String> sourcePackages;
+        try {
+            final long size = Files.size(file);
+            final Seed seed = seeds.get(file.getFileName().toString());
+            if (seed != null && seed.size == size) {
+                source = new Source(url, file, null);
+                sourcePackages = seed.packages;
+            } else {
+                final JarFile jar = open(file);
+                source = new Source(url, file, jar);
+                sourcePackages = scan(jar);
+                seeds.put(file.getFileName().toString(), new Seed(size, sourcePackages));
+                seedOutdated = true;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to index class path entry {}, class lookups won't use the index", url, e);
+            complete = false;
+            packages.clear();
+            return;
+        }
+
+        sources.add(source);
+        for (final String pkg : sourcePackages) {
+            packages.merge(pkg, new Source[]{source}, (existing, added) -> {
+                final Source[] merged = Arrays.copyOf(existing, existing.length + 1);
+                merged[existing.length] = added[0];
+                return merged;
+            });
+        }
+    }
+
+    /**
+     * Finds the first source containing a resource. Only valid while {@link #isComplete()}.
+     *
+     * @param path Resource path, like {@code com/example/Foo.class}
+     * @return The resource, or null if no source contains it
+     */
+    @Nullable
+    Resource find(@NotNull String path) {
+        final int lastSlash = path.lastIndexOf('/');
+        final Source[] candidates = packages.get(lastSlash == -1 ? "" : path.substring(0, lastSlash + 1));
+        if (candidates == null)
+            return null;
+
+        for (final Source source : candidates) {
+            try {
+                final JarFile jar = source.jar();
+                final JarEntry entry = jar.getJarEntry(path);
+                if (entry != null)
+                    return new Resource(source.entryUrl(path), jar, entry, source.url, source.storedEntries());
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read class path entry {}", source.url, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the index file if any jar had to be scanned
+     */
+    synchronized void save() {
+        if (seedFile == null || !seedOutdated || !complete)
+            return;
+
+        final Path tempFile = seedFile.resolveSibling(seedFile.getFileName() + ".tmp");
+        try {
+            if (seedFile.getParent() != null)
+                Files.createDirectories(seedFile.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                for (final Source source : sources) {
+                    final String name = source.file.getFileName().toString();
+                    final Seed seed = seeds.get(name);
+                    final List<String> names = new ArrayList<>(seed.packages.size());
+                    for (final String pkg : seed.packages) {
+                        // Classes without a package are written as "/", an empty name wouldn't survive splitting
+                        names.add(pkg.isEmpty() ? "/" : pkg);
+                    }
+                    writer.write(name + "\t" + seed.size + "\t" + String.join(" ", names));
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, seedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            seedOutdated = false;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write class index {}", seedFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (final Source source : sources) {
+            source.close();
+        }
+    }
+
+    private void readSeeds(@NotNull Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 3);
+                if (parts.length != 3)
+                    continue;
+                final Set<String> seedPackages = new LinkedHashSet<>();
+                for (final String pkg : parts[2].split(" ")) {
+                    if (!pkg.isEmpty())
+                        seedPackages.add(pkg.equals("/") ? "" : pkg);
+                }
+                seeds.put(parts[0], new Seed(Long.parseLong(parts[1]), seedPackages));
+            }
+        } catch (IOException | RuntimeException e) {
+            // The index file is only an optimization, every jar gets scanned instead
+            LOGGER.warn("Ignoring unreadable class index {}", file, e);
+            seeds.clear();
+        }
+    }
+
+    @NotNull
+    private static Set<String> scan(@NotNull JarFile jar) {
+        final Set<String> result = new LinkedHashSet<>();
+        jar.versionedStream().forEach(entry -> {
+            if (entry.isDirectory())
+                return;
+            final String name = entry.getName();
+            final int lastSlash = name.lastIndexOf('/');
+            result.add(lastSlash == -1 ? "" : name.substring(0, lastSlash + 1));
+        });
+        return result;
+    }
+
+    @NotNull
+    private static JarFile open(@NotNull Path file) throws IOException {
+        // Same as URLClassPath: verify signatures and pick the classes for the running Java version
+        return new JarFile(file.toFile(), true, ZipFile.OPEN_READ, Runtime.version());
+    }
+
+    @Nullable
+    private static Path toJarFile(@NotNull URL url) {
+        if (!"file".equals(url.getProtocol()))
+            return null;
+        try {
+            final Path file = Paths.get(url.toURI());
+            return Files.isRegularFile(file) ? file : null;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private record Seed(long size, Set<String> packages) {
+    }
+
+    private static final class Source implements Closeable {
+        private final URL url;
+        private final Path file;
+        private final String entryUrlPrefix;
+        @Nullable
+        private volatile JarFile jar;
+        @Nullable
+        private volatile StoredEntries storedEntries;
+        private volatile boolean mapped;
+
+        private Source(URL url, Path file, @Nullable JarFile jar) {
+            this.url = url;
+            this.file = file;
+            this.entryUrlPrefix = "jar:" + url + "!/";
+            this.jar = jar;
+        }
+
+        @NotNull
+        JarFile jar() throws IOException {
+            JarFile result = jar;
+            if (result == null) {
+                synchronized (this) {
+                    result = jar;
+                    if (result == null) {
+                        result = open(file);
+                        jar = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Nullable
+        StoredEntries storedEntries() {
+            if (!MAP_JARS)
+                return null;
+            if (!mapped) {
+                synchronized (this) {
+                    if (!mapped) {
+                        try {
+                            storedEntries = StoredEntries.map(file);
+                        } catch (IOException e) {
+                            LOGGER.debug("Failed to map {}, reading its classes through streams", file, e);
+                        }
+                        mapped = true;
+                    }
+                }
+            }
+            return storedEntries;
+        }
+
+        @NotNull
+        URL entryUrl(@NotNull String path) throws MalformedURLException {
+            try {
+                return URI.create(entryUrlPrefix + path).toURL();
+            } catch (IllegalArgumentException e) {
+                throw new MalformedURLException(e.getMessage());
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            final JarFile current = jar;
+            storedEntries = null;
+            if (current != null) {
+                jar = null;
+                current.close();
+            }
+        }
+    }
+
+    /**
+     * A class found on the class path, with everything needed to read and define it
+     *
+     * @param url        URL of the resource itself
+     * @param jarFile    Jar containing the resource, if it is in a jar
+     * @param entry      Entry of the resource in the jar
+     * @param jarFileUrl URL of the jar
+     * @param storedEntries Memory mapped view of the jar, if it has uncompressed classes
+     */
+    record Resource(
+            @NotNull URL url,
+            @Nullable JarFile jarFile,
+            @Nullable JarEntry entry,
+            @Nullable URL jarFileUrl,
+            @Nullable StoredEntries storedEntries
+    ) {
+        /**
+         * Opens the connection to a resource found through {@link java.net.URLClassLoader#findResource(String)}
+         */
+        @NotNull
+        static Resource of(@NotNull URL url) throws IOException {
+            final URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection jarConnection) {
+                return new Resource(url, jarConnection.getJarFile(), jarConnection.getJarEntry(), jarConnection.getJarFileURL(), null);
+            }
+            return new Resource(url, null, null, null, null);
+        }
+
+        /**
+         * @return The class data straight from the mapped jar, or null if the class is compressed
+         */
+        @Nullable
+        ByteBuffer mapped() {
+            return storedEntries != null && entry != null ? storedEntries.get(entry.getRealName()) : null;
+        }
+
+        /**
+         * Reads the resource into an array of exactly its size
+         */
+        byte @NotNull [] read() throws IOException {
+            final ByteBuffer mapped = mapped();
+            if (mapped != null) {
+                final byte[] data = new byte[mapped.remaining()];
+                mapped.get(data);
+                return data;
+            }
+            try (InputStream stream = open()) {
+                final long size = entry != null ? entry.getSize() : -1;
+                if (size < 0 || size > Integer.MAX_VALUE)
+                    return stream.readAllBytes();
+                final byte[] data = stream.readNBytes((int) size);
+                if (data.length != size || stream.read() != -1)
+                    throw new IOException("Size of " + url + " doesn't match its jar entry");
+                return data;
+            }
+        }
+
+        @NotNull
+        InputStream open() throws IOException {
+            return jarFile != null && entry != null ? jarFile.getInputStream(entry) : url.openStream();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Class transformer which only cares about some classes.
+ * <p>
+ * {@link LaunchClassLoader} skips the transformer for every other class, without handing it the class bytes.
+ * Transformers which don't implement it can be wrapped with {@link LaunchClassLoader#wrapTransformer}.
+ */
+public interface ITargetedClassTransformer extends IClassTransformer {
+    /**
+     * Checks whether this transformer wants to see a class
+     * <p>
+     * Note that class names are using dots instead of slashes. Classes without bytes are always
+     * passed to every transformer, because transformers may generate those.
+     *
+     * @param name            Class unmapped name
+     * @param transformedName Class mapped name, may equal to unmapped name
+     * @return Whether {@link #transform(String, String, byte[])} should be called for this class
+     */
+    boolean isTarget(@NotNull String name, @NotNull String transformedName);
+}
@@ -29,26 +29,30 @@ package launchwrapper;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.*;
-import java.net.JarURLConnection;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.security.CodeSigner;
 import java.security.CodeSource;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
-import static java.util.Objects.requireNonNull;
 import static com.fandmc.fandclip.Fandclip.LOGGER;
 
 public class LaunchClassLoader extends URLClassLoader {
@@ -64,19 +68,29 @@ public class LaunchClassLoader extends URLClassLoader {
     private final List<URL> sources;
     private final ClassLoader parent;
 
-    private final List<IClassTransformer> transformers = new ArrayList<>(2);
+    private final List<IClassTransformer> transformers = new CopyOnWriteArrayList<>();
+    private final TransformerMetrics transformerMetrics = new TransformerMetrics();
+    @Nullable
+    private volatile ObjectName transformerMetricsName;
     private final Map<String, Class<?>> cachedClasses = new ConcurrentHashMap<>();
-    private final Set<String> invalidClasses = new HashSet<>(1000);
-
-    private final Set<String> classLoaderExceptions = new HashSet<>();
-    private final Set<String> transformerExceptions = new HashSet<>();
-    private final Map<String, byte[]> resourceCache = new ConcurrentHashMap<>(1000);
-    private final Set<String> negativeResourceCache = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final NegativeCache invalidClasses = new NegativeCache(NEGATIVE_CACHE_SIZE);
 
+    private final PrefixSet classLoaderExceptions = new PrefixSet();
+    private final PrefixSet transformerExceptions = new PrefixSet();
+    private final ClassBytesCache classBytesCache = new ClassBytesCache(CLASS_BYTES_CACHE_SIZE, CLASS_BYTES_CACHE_COMPRESS, CLASS_BYTES_CACHE_OFF_HEAP);
+    @Nullable
+    private final TransformCache transformCache;
+    private final ClassPathIndex classPathIndex = new ClassPathIndex(CLASS_INDEX_PATH);
+    // Transformed by preload workers, waiting for a thread to ask for them, keyed by transformed name
+    private final Map<String, PreparedClass> preparedClasses = new ConcurrentHashMap<>();
     @Nullable
-    private IClassNameTransformer renameTransformer = null;
+    private final ClassLoadTrace classTrace = CLASS_TRACE_PATH != null ? new ClassLoadTrace(CLASS_TRACE_PATH, preparedClasses::clear) : null;
+    private final NegativeCache negativeResourceCache = new NegativeCache(NEGATIVE_CACHE_SIZE);
+    @Nullable
+    private final ClassDumpWriter classDump = DEBUG_SAVE ? new ClassDumpWriter(DUMP_PATH) : null;
 
-    private final ThreadLocal<byte[]> loadBuffer = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    @Nullable
+    private volatile IClassNameTransformer renameTransformer = null;
 
     private static final String[] RESERVED_NAMES = {
             "CON", "PRN", "AUX", "NUL",
@@ -87,12 +101,34 @@ public class LaunchClassLoader extends URLClassLoader {
     private static final boolean DEBUG_FINER = DEBUG && Boolean.getBoolean("legacy.debugClassLoadingFiner");
     private static final boolean DEBUG_SAVE = DEBUG && Boolean.getBoolean("legacy.debugClassLoadingSave");
     private static final Path DUMP_PATH = Paths.get(System.getProperty("legacy.classDumpPath", "./.classloader.out"));
+    // In MiB, only bounds bytes that are kept after their class was defined
+    private static final long CLASS_BYTES_CACHE_SIZE = Long.getLong("legacy.classBytesCacheSize", 32) << 20;
+    private static final boolean CLASS_BYTES_CACHE_COMPRESS = Boolean.getBoolean("legacy.classBytesCacheCompress");
+    private static final boolean CLASS_BYTES_CACHE_OFF_HEAP = Boolean.getBoolean("legacy.classBytesCacheOffHeap");
+    // Names each negative cache remembers
+    private static final int NEGATIVE_CACHE_SIZE = Integer.getInteger("legacy.negativeCacheSize", 8192);
+    private static final boolean TRANSFORM_CACHE = Boolean.getBoolean("legacy.transformCache");
+    private static final Path TRANSFORM_CACHE_PATH = Paths.get(System.getProperty("legacy.transformCachePath", "./.classloader.cache"));
+    @Nullable
+    private static final Path CLASS_INDEX_PATH = System.getProperty("legacy.classIndex") != null ? Paths.get(System.getProperty("legacy.classIndex")) : null;
+    @Nullable
+    private static final Path CLASS_TRACE_PATH = System.getProperty("legacy.classTrace") != null ? Paths.get(System.getProperty("legacy.classTrace")) : null;
+    // Set on threads preloading traced classes, whose failures must not stick
+    private static final ThreadLocal<Boolean> preloading = ThreadLocal.withInitial(() -> false);
+    private static final AtomicInteger loaderCount = new AtomicInteger();
+    /* Use this, if a transformer misses classes it should have seen */
+    private static final boolean FILTER_TRANSFORMERS = !Boolean.getBoolean("legacy.dontFilterTransformers");
 
     @SuppressWarnings("CommentedOutCode")
     public LaunchClassLoader(URL[] sources, ClassLoader parent) {
         super(sources, null);
         this.parent = parent;
-        this.sources = new ArrayList<>(Arrays.asList(sources));
+        this.sources = new CopyOnWriteArrayList<>(sources);
+        this.transformCache = TRANSFORM_CACHE ? new TransformCache(TRANSFORM_CACHE_PATH, this.sources, transformers) : null;
+        for (final URL source : sources) {
+            classPathIndex.add(source);
+        }
+        classPathIndex.save();
 
         // classloader exclusions
         getClassLoaderExclusions().addAll(Arrays.asList(
@@ -137,17 +173,7 @@ public class LaunchClassLoader extends URLClassLoader {
         //     }
         // }
 
-        if (DEBUG_SAVE) {
-            try {
-                if (Files.exists(DUMP_PATH)) {
-                    Files.walk(DUMP_PATH).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
-                }
-                Files.createDirectories(DUMP_PATH);
-                LOGGER.info("DEBUG_SAVE Enabled, saving all classes to \"{}\"", DUMP_PATH);
-            } catch (IOException e) {
-                LOGGER.warn("Failed to set up DEBUG_SAVE", e);
-            }
-        }
+        registerTransformerMetrics();
     }
 
     /**
@@ -163,98 +189,186 @@ public class LaunchClassLoader extends URLClassLoader {
             transformers.add(transformer);
             if (transformer instanceof IClassNameTransformer && renameTransformer == null)
                 renameTransformer = (IClassNameTransformer) transformer;
+            if (transformCache != null)
+                transformCache.invalidate();
         } catch (Exception e) {
             LOGGER.warn("A critical problem occurred registering the transformer class {}", transformerClassName, e);
         }
     }
 
+    /**
+     * Replaces a registered transformer with a wrapper around it, e.g. an {@link ITargetedClassTransformer}
+     * for a transformer which can't say which classes it targets itself
+     *
+     * @param transformerClassName Fully qualified class name of the registered transformer
+     * @param wrapper              Creates the replacement from the registered transformer
+     * @return Whether a transformer of that class was registered
+     */
+    public boolean wrapTransformer(@NotNull String transformerClassName, @NotNull UnaryOperator<IClassTransformer> wrapper) {
+        synchronized (transformers) {
+            for (int i = 0; i < transformers.size(); i++) {
+                final IClassTransformer transformer = transformers.get(i);
+                if (transformer.getClass().getName().equals(transformerClassName)) {
+                    transformers.set(i, wrapper.apply(transformer));
+                    if (transformCache != null)
+                        transformCache.invalidate();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        // Classes this loader defined are answered before taking the class loading lock, whose lookup allocates
+        final Class<?> cached = cachedClasses.get(name);
+        if (cached != null) {
+            // Excluded after it was defined here, findClass hands it to the parent, and so does this
+            if (classLoaderExceptions.matches(name))
+                return parent.loadClass(name);
+            traceRequest(name);
+            if (resolve)
+                resolveClass(cached);
+            return cached;
+        }
+        final Class<?> clazz = super.loadClass(name, resolve);
+        if (clazz.getClassLoader() == this)
+            traceRequest(name);
+        return clazz;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Class<?> findClass(final String name) throws ClassNotFoundException {
-        if (invalidClasses.contains(name)) {
-            throw new ClassNotFoundException(name);
+        // Kept small so it inlines into callers, it must not allocate
+        final Class<?> cached = cachedClasses.get(name);
+        if (cached != null && !classLoaderExceptions.matches(name)) {
+            traceRequest(name);
+            return cached;
         }
+        final Class<?> clazz = findUncachedClass(name);
+        if (clazz.getClassLoader() == this)
+            traceRequest(name);
+        return clazz;
+    }
 
-        for (final String exception : classLoaderExceptions) {
-            if (name.startsWith(exception))
-                return parent.loadClass(name);
+    /**
+     * Records a class the server asked for in the class trace. Classes defined by preload workers are left out
+     * until something else asks for them, otherwise a trace would keep every class of the one before it.
+     */
+    private void traceRequest(@NotNull String name) {
+        final ClassLoadTrace trace = classTrace;
+        if (trace != null && trace.isRecording() && !preloading.get())
+            trace.record(name);
+    }
+
+    @NotNull
+    private Class<?> findUncachedClass(@NotNull String name) throws ClassNotFoundException {
+        if (invalidClasses.contains(name)) {
+            throw new ClassNotFoundException(name);
         }
 
-        if (cachedClasses.containsKey(name))
-            return cachedClasses.get(name);
+        if (classLoaderExceptions.matches(name))
+            return parent.loadClass(name);
 
-        for (final String exception : transformerExceptions) {
-            if (name.startsWith(exception)) {
+        if (transformerExceptions.matches(name)) {
+            synchronized (getClassLoadingLock(name)) {
+                final Class<?> defined = cachedClasses.get(name);
+                if (defined != null)
+                    return defined;
                 try {
                     final Class<?> clazz = super.findClass(name);
                     cachedClasses.put(name, clazz);
                     return clazz;
                 } catch (ClassNotFoundException e) {
-                    invalidClasses.add(name);
+                    markInvalid(name);
                     throw e;
                 }
             }
         }
 
         final String transformedName = transformName(name);
-        if (cachedClasses.containsKey(transformedName)) {
-            return cachedClasses.get(transformedName);
-        }
-
-        final String untransformedName = untransformName(name);
-
-        // Get class bytes
-        byte[] classData = getClassBytes(untransformedName);
-
-        byte[] transformedClass = null;
-        try {
-            // Run transformers (running with null class bytes is valid, because transformers may generate classes dynamically)
-            transformedClass = runTransformers(untransformedName, transformedName, classData);
-        } catch (Exception e) {
-            if (DEBUG)
-                LOGGER.trace("Exception encountered while transformimg class {}", name, e);
+        final Class<?> cachedTransformed = cachedClasses.get(transformedName);
+        if (cachedTransformed != null) {
+            return cachedTransformed;
         }
 
-        // If transformer chain provides no class data, mark given class name invalid and throw CNFE
-        if (transformedClass == null) {
-            invalidClasses.add(name);
-            throw new ClassNotFoundException(name);
-        }
-
-        // Save class if requested so
-        if (DEBUG_SAVE) {
+        /*
+         * Different names can map to the same transformed name, and findClass can be called directly,
+         * so the lock of the caller isn't enough. Holding the lock of the transformed name makes sure
+         * every class is transformed and defined exactly once, while unrelated classes still load in parallel.
+         */
+        synchronized (getClassLoadingLock(transformedName)) {
+            // Another thread may have finished this class while we were waiting
+            final Class<?> defined = cachedClasses.get(transformedName);
+            if (defined != null) {
+                return defined;
+            }
+            if (invalidClasses.contains(name)) {
+                throw new ClassNotFoundException(name);
+            }
+            final String untransformedName = untransformName(name);
             try {
-                saveTransformedClass(transformedClass, transformedName);
-            } catch (IOException e) {
-                LOGGER.warn("Failed to save class {}", transformedName, e);
+                return transformAndDefine(name, transformedName, untransformedName);
+            } finally {
+                // Nothing reads the original bytes once the class is defined, unless they were shared
+                classBytesCache.release(untransformedName);
             }
         }
+    }
+
+    @NotNull
+    private Class<?> transformAndDefine(
+            @NotNull String name,
+            @NotNull String transformedName,
+            @NotNull String untransformedName
+    ) throws ClassNotFoundException {
+        // Look the class up once, for its bytes as well as its code source
+        final String fileName = untransformedName.replace('.', '/').concat(".class");
+        final ClassPathIndex.Resource resource = findClassResource(fileName);
+
+        // When no transformer targets the class nobody needs its bytes as an array, so define it straight from the mapped jar
+        // The chain and the fingerprint its cached output is stored under must see the same transformers
+        final TransformCache.Generation cacheGeneration = transformCache != null ? transformCache.generation() : null;
+        final List<IClassTransformer> registered = cacheGeneration != null ? cacheGeneration.transformers() : transformers;
+        final List<IClassTransformer> chain = resolveTransformers(registered, untransformedName, transformedName);
+        final ByteBuffer mappedClass = chain.isEmpty() && !DEBUG_SAVE && resource != null ? resource.mapped() : null;
+        final PreparedClass prepared = preparedClasses.remove(transformedName);
+        final byte[] transformedClass;
+        if (mappedClass != null) {
+            transformedClass = null;
+        } else if (prepared != null && prepared.transformers().equals(registered)) {
+            transformedClass = prepared.bytes();
+        } else {
+            transformedClass = transformClass(name, transformedName, untransformedName, resource, registered, chain, cacheGeneration);
+        }
 
         // Define package for class
         int lastDot = untransformedName.lastIndexOf('.');
         String packageName = lastDot == -1 ? "" : untransformedName.substring(0, lastDot);
-        String fileName = untransformedName.replace('.', '/').concat(".class");
-        URLConnection urlConnection = findCodeSourceConnectionFor(fileName);
         CodeSigner[] signers = null;
 
         try {
             if (lastDot > -1) {
-                if (urlConnection instanceof JarURLConnection jarURLConnection) {
-                    final JarFile jarFile = jarURLConnection.getJarFile();
+                if (resource != null && resource.jarFile() != null) {
+                    final JarFile jarFile = resource.jarFile();
 
-                    if (jarFile != null && jarFile.getManifest() != null) {
+                    if (jarFile.getManifest() != null) {
                         final Manifest manifest = jarFile.getManifest();
-                        final JarEntry entry = jarFile.getJarEntry(fileName);
+                        final JarEntry entry = resource.entry();
 
                         Package pkg = getDefinedPackage(packageName);
-                        getClassBytes(untransformedName);
-                        signers = entry.getCodeSigners();
+                        signers = entry != null ? entry.getCodeSigners() : null;
                         if (pkg == null) {
-                            pkg = definePackage(packageName, manifest, jarURLConnection.getJarFileURL());
+                            pkg = definePackage(packageName, manifest, resource.jarFileUrl());
                         } else {
-                            if (pkg.isSealed() && !pkg.isSealed(jarURLConnection.getJarFileURL())) {
+                            if (pkg.isSealed() && !pkg.isSealed(resource.jarFileUrl())) {
                                 LOGGER.error("The jar file {} is trying to seal already secured path {}",
                                         jarFile.getName(),
                                         packageName);
@@ -279,32 +393,86 @@ public class LaunchClassLoader extends URLClassLoader {
                                 null
                         );
                     } else if (pkg.isSealed()) {
-                        URL url = urlConnection != null ? urlConnection.getURL() : null;
+                        URL url = resource != null ? resource.url() : null;
                         LOGGER.error("The URL {} is defining elements for sealed path {}", url, packageName);
                     }
                 }
             }
 
             // Define class
-            final CodeSource codeSource = urlConnection == null ?
+            final CodeSource codeSource = resource == null ?
                     null :
-                    new CodeSource(urlConnection.getURL(), signers);
-            final Class<?> clazz = defineClass(
-                    transformedName,
-                    transformedClass,
-                    0,
-                    transformedClass.length,
-                    codeSource
-            );
+                    new CodeSource(resource.url(), signers);
+            final Class<?> clazz = mappedClass != null ?
+                    defineClass(transformedName, mappedClass, codeSource) :
+                    defineClass(
+                            transformedName,
+                            transformedClass,
+                            0,
+                            transformedClass.length,
+                            codeSource
+                    );
             cachedClasses.put(transformedName, clazz);
             return clazz;
         } catch (Exception e) {
-            invalidClasses.add(name);
+            markInvalid(name);
             if (DEBUG) LOGGER.trace("Exception encountered attempting classloading of {}", name, e);
             throw new ClassNotFoundException(name, e);
         }
     }
 
+    /**
+     * Runs the transformers over a class
+     *
+     * @return The bytes to define
+     */
+    private byte @NotNull [] transformClass(
+            @NotNull String name,
+            @NotNull String transformedName,
+            @NotNull String untransformedName,
+            ClassPathIndex.@Nullable Resource resource,
+            @NotNull List<IClassTransformer> registered,
+            @NotNull List<IClassTransformer> chain,
+            TransformCache.@Nullable Generation cacheGeneration
+    ) throws ClassNotFoundException {
+        // Get class bytes
+        byte[] classData = getClassBytes(untransformedName, false, () -> resource);
+
+        // Generated classes may interest any transformer, they never skip one
+        if (classData == null)
+            chain = registered;
+
+        // Generated classes have no bytes to key them by, so those always go through the transformers
+        final Path cacheEntry = cacheGeneration != null && classData != null && !chain.isEmpty() ? transformCache.entry(cacheGeneration, transformedName, classData) : null;
+        byte[] transformedClass = cacheEntry != null ? transformCache.get(cacheEntry) : null;
+        if (transformedClass == null) {
+            try {
+                // Run transformers (running with null class bytes is valid, because transformers may generate classes dynamically)
+                transformedClass = runTransformers(untransformedName, transformedName, classData, chain);
+            } catch (Exception e) {
+                if (DEBUG)
+                    LOGGER.trace("Exception encountered while transformimg class {}", name, e);
+            }
+            if (cacheEntry != null && transformedClass != null)
+                transformCache.put(cacheGeneration, cacheEntry, transformedClass);
+        } else if (DEBUG_FINER) {
+            LOGGER.trace("Using cached transformation of {} ({})", untransformedName, transformedName);
+        }
+
+        // If transformer chain provides no class data, mark given class name invalid and throw CNFE
+        if (transformedClass == null) {
+            markInvalid(name);
+            throw new ClassNotFoundException(name);
+        }
+
+        // Save class if requested so
+        if (classDump != null) {
+            classDump.save(transformedName, transformedClass);
+        }
+
+        return transformedClass;
+    }
+
     /**
      * Adds an {@link URL} to classloader
      *
@@ -314,6 +482,62 @@ public class LaunchClassLoader extends URLClassLoader {
     public void addURL(final URL url) {
         super.addURL(url);
         sources.add(url);
+        classPathIndex.add(url);
+        classPathIndex.save();
+        // The new source may have any of the classes that were missing so far
+        invalidClasses.clear();
+        negativeResourceCache.clear();
+        if (transformCache != null)
+            transformCache.invalidate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            classPathIndex.close();
+            if (classDump != null)
+                classDump.close();
+            final ObjectName name = transformerMetricsName;
+            if (name != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                } catch (JMException e) {
+                    LOGGER.debug("Failed to unregister {}", name, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cost of every registered transformer, which is also published in JMX
+     *
+     * @return Transformer metrics of this classloader
+     */
+    @SuppressWarnings("unused")
+    @NotNull
+    public TransformerMetricsMXBean getTransformerMetrics() {
+        return transformerMetrics;
+    }
+
+    private void registerTransformerMetrics() {
+        final int id = loaderCount.getAndIncrement();
+        // Starting the platform MBean server takes a while, it shouldn't hold up startup
+        final Thread thread = new Thread(() -> {
+            try {
+                final ObjectName name = new ObjectName("launchwrapper:type=TransformerMetrics" + (id == 0 ? "" : ",id=" + id));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(transformerMetrics, name);
+                transformerMetricsName = name;
+            } catch (JMException e) {
+                LOGGER.warn("Failed to publish transformer metrics", e);
+            }
+        }, "Transformer Metrics Registration");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
@@ -355,6 +579,8 @@ public class LaunchClassLoader extends URLClassLoader {
      * <p>
      * Classlaoder exclusions look like this: {@code com.mojang.authlib.}, so that means all classes and subclasses
      * in {@code com.mojang.authlib} class would be loaded from parent classloader
+     * <p>
+     * The set is safe to change while classes are being loaded.
      *
      * @return {@link Set} of classloader exclusions
      */
@@ -379,6 +605,8 @@ public class LaunchClassLoader extends URLClassLoader {
      * <p>
      * Transformer exclusions look like this: {@code com.mojang.authlib.}, so that means all classes and subclasses
      * in {@code com.mojang.authlib} class won't be transformed
+     * <p>
+     * The set is safe to change while classes are being loaded.
      *
      * @return {@link Set} of transformer exclusions.
      */
@@ -394,87 +622,158 @@ public class LaunchClassLoader extends URLClassLoader {
      * @return Class raw bytes, or null if class was not found
      */
     public byte @Nullable [] getClassBytes(@NotNull String name) {
+        return getClassBytes(name, true);
+    }
+
+    /**
+     * Gets statistics of the class bytes cache, to help sizing it with {@code legacy.classBytesCacheSize}
+     *
+     * @return Snapshot of the cache statistics
+     */
+    @SuppressWarnings("unused")
+    @NotNull
+    public ClassBytesCache.Stats getClassBytesCacheStats() {
+        return classBytesCache.stats();
+    }
+
+    private byte @Nullable [] getClassBytes(@NotNull String name, boolean shared) {
+        return getClassBytes(name, shared, () -> findClassResource(name.replace('.', '/').concat(".class")));
+    }
+
+    /**
+     * @param lookup Finds the class on the class path, only called if the bytes aren't cached
+     */
+    private byte @Nullable [] getClassBytes(@NotNull String name, boolean shared, @NotNull Supplier<ClassPathIndex.@Nullable Resource> lookup) {
         if (negativeResourceCache.contains(name)) {
             return null;
-        } else if (resourceCache.containsKey(name)) {
-            return resourceCache.get(name);
+        }
+        final byte[] cached = classBytesCache.get(name, shared);
+        if (cached != null) {
+            return cached;
         }
         if (name.indexOf('.') == -1) {
             for (final String reservedName : RESERVED_NAMES) {
                 if (name.toUpperCase(Locale.ENGLISH).startsWith(reservedName)) {
-                    final byte[] data = getClassBytes("_" + name);
-                    if (data != null) {
-                        resourceCache.put(name, data);
-                        return data;
+                    // Cached under the name it was asked for only, that is the entry findClass releases
+                    final ClassPathIndex.Resource escapedResource = findClassResource("_" + name + ".class");
+                    if (escapedResource != null) {
+                        return readClassBytes(name, shared, escapedResource);
                     }
+                    break;
                 }
             }
         }
 
-        String resourcePath = name.replace('.', '/').concat(".class");
-        URL classResource = findResource(resourcePath);
+        ClassPathIndex.Resource classResource = lookup.get();
         if (classResource == null) {
-            if (DEBUG) LOGGER.trace("Failed to find class resource {}", resourcePath);
-            negativeResourceCache.add(name);
+            if (DEBUG) LOGGER.trace("Failed to find class resource {}", name);
+            markMissing(name);
             return null;
         }
-        try (InputStream classStream = classResource.openStream()) {
-            if (DEBUG) LOGGER.trace("Loading class {} from resource {}", name, classResource);
-            byte[] data = requireNonNull(readFully(classStream));
-            resourceCache.put(name, data);
+        return readClassBytes(name, shared, classResource);
+    }
+
+    private byte @Nullable [] readClassBytes(@NotNull String name, boolean shared, ClassPathIndex.@NotNull Resource classResource) {
+        try {
+            if (DEBUG) LOGGER.trace("Loading class {} from resource {}", name, classResource.url());
+            byte[] data = classResource.read();
+            classBytesCache.put(name, data, shared);
             return data;
         } catch (Exception e) {
-            if (DEBUG) LOGGER.trace("Failed to load class {} from resource {}", name, classResource);
-            negativeResourceCache.add(name);
+            if (DEBUG) LOGGER.trace("Failed to load class {} from resource {}", name, classResource.url());
+            markMissing(name);
             return null;
         }
     }
 
     /**
-     * Clears negative resource entries (resources which failed to load in this classloader)
-     *
-     * @param entriesToClear Entries to clear
+     * Starts loading the classes recorded by the class trace ({@code legacy.classTrace}) of an earlier start
+     * on background threads. Call this once all transformers are registered, classes defined before that
+     * won't be transformed by the transformers registered later.
      */
-    @SuppressWarnings("unused")
-    public void clearNegativeEntries(@NotNull Set<String> entriesToClear) {
-        negativeResourceCache.removeAll(entriesToClear);
+    public void preloadTracedClasses() {
+        if (classTrace != null)
+            classTrace.preload(this::preloadClass);
     }
 
-    private byte @Nullable [] readFully(@NotNull InputStream stream) {
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream(stream.available())) {
-            int readBytes;
-            byte[] buffer = loadBuffer.get();
+    private void preloadClass(@NotNull String name) {
+        preloading.set(true);
+        try {
+            prepareClass(name);
+        } catch (Exception | LinkageError e) {
+            // The class may depend on something that isn't there yet, the main thread will load it on its own
+            if (DEBUG) LOGGER.trace("Failed to preload class {}", name, e);
+        } finally {
+            preloading.set(false);
+        }
+    }
 
-            while ((readBytes = stream.read(buffer, 0, buffer.length)) != -1)
-                os.write(buffer, 0, readBytes);
+    /**
+     * Reads and transforms a traced class ahead of time. Defining it is left to the thread that asks for it,
+     * so the request is traced, and classes nobody asks for any more are never defined.
+     */
+    private void prepareClass(@NotNull String name) throws ClassNotFoundException {
+        if (invalidClasses.contains(name) || classLoaderExceptions.matches(name) || transformerExceptions.matches(name))
+            return;
 
-            return os.toByteArray();
-        } catch (Throwable t) {
-            LOGGER.warn("Problem reading stream fully", t);
-            return null;
+        final String transformedName = transformName(name);
+        synchronized (getClassLoadingLock(transformedName)) {
+            if (cachedClasses.containsKey(transformedName) || preparedClasses.containsKey(transformedName))
+                return;
+            final String untransformedName = untransformName(name);
+            try {
+                final ClassPathIndex.Resource resource = findClassResource(untransformedName.replace('.', '/').concat(".class"));
+                final TransformCache.Generation cacheGeneration = transformCache != null ? transformCache.generation() : null;
+                final List<IClassTransformer> registered = cacheGeneration != null ? cacheGeneration.transformers() : List.copyOf(transformers);
+                final List<IClassTransformer> chain = resolveTransformers(registered, untransformedName, transformedName);
+                // Nothing to do ahead of time for classes which are defined straight from the jar
+                if (chain.isEmpty() && !DEBUG_SAVE && resource != null)
+                    return;
+                final byte[] bytes = transformClass(name, transformedName, untransformedName, resource, registered, chain, cacheGeneration);
+                preparedClasses.put(transformedName, new PreparedClass(registered, bytes));
+            } finally {
+                classBytesCache.release(untransformedName);
+            }
         }
     }
 
-    private void saveTransformedClass(byte @NotNull [] data, @NotNull String transformedName) throws IOException {
-        Path classFile = Paths.get(
-                DUMP_PATH.toString(),
-                transformedName.replace('.', File.separatorChar) + ".class"
-        );
+    /**
+     * @param transformers The registered transformers the class was transformed with, a change means it has to be transformed again
+     */
+    private record PreparedClass(@NotNull List<IClassTransformer> transformers, byte @NotNull [] bytes) {
+    }
 
-        if (Files.notExists(classFile.getParent()))
-            Files.createDirectories(classFile);
+    private void markInvalid(@NotNull String name) {
+        if (!preloading.get())
+            invalidClasses.add(name);
+    }
 
-        if (Files.exists(classFile)) {
-            LOGGER.warn("Transformed class \"{}\" already exists! Deleting old class", transformedName);
-            Files.delete(classFile);
-        }
+    private void markMissing(@NotNull String name) {
+        if (!preloading.get())
+            negativeResourceCache.add(name);
+    }
 
-        try (OutputStream output = Files.newOutputStream(classFile, StandardOpenOption.CREATE_NEW)) {
-            LOGGER.debug("Saving transformed class \"{}\" to \"{}\"", transformedName, classFile);
-            output.write(data);
-        } catch (IOException ex) {
-            LOGGER.warn("Could not save transformed class \"{}\"", transformedName, ex);
-        }
+    /**
+     * Clears negative resource entries (resources and classes which failed to load in this classloader)
+     *
+     * @param entriesToClear Entries to clear
+     */
+    @SuppressWarnings("unused")
+    public void clearNegativeEntries(@NotNull Set<String> entriesToClear) {
+        negativeResourceCache.removeAll(entriesToClear);
+        invalidClasses.removeAll(entriesToClear);
+    }
+
+    /**
+     * Gets statistics of the caches of classes and resources which failed to load,
+     * to help sizing them with {@code legacy.negativeCacheSize}
+     *
+     * @return Snapshots of the invalid class cache and the negative resource cache, in this order
+     */
+    @SuppressWarnings("unused")
+    @NotNull
+    public List<NegativeCache.Stats> getNegativeCacheStats() {
+        return List.of(invalidClasses.stats(), negativeResourceCache.stats());
     }
 
     @NotNull
@@ -496,31 +795,78 @@ public class LaunchClassLoader extends URLClassLoader {
         return "true".equalsIgnoreCase(sealed);
     }
 
-    @Nullable
-    private URLConnection findCodeSourceConnectionFor(@NotNull String name) {
-        final URL resource = findResource(name);
-        if (resource != null) {
-            try {
-                return resource.openConnection();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * Finds a class file through the class path index, or through the class path itself if the index can't answer
+     */
+    private ClassPathIndex.@Nullable Resource findClassResource(@NotNull String fileName) {
+        if (classPathIndex.isComplete())
+            return classPathIndex.find(fileName);
+
+        final URL resource = findResource(fileName);
+        if (resource == null)
+            return null;
+        try {
+            return ClassPathIndex.Resource.of(resource);
+        } catch (IOException e) {
+            if (DEBUG) LOGGER.trace("Failed to open class resource {}", resource, e);
+            return null;
+        }
+    }
+
+    /**
+     * Picks the transformers out of {@code registered} which target a class, in registration order
+     */
+    @NotNull
+    private List<IClassTransformer> resolveTransformers(
+            @NotNull List<IClassTransformer> registered,
+            @NotNull String name,
+            @NotNull String transformedName
+    ) {
+        if (!FILTER_TRANSFORMERS)
+            return registered;
+
+        for (final IClassTransformer transformer : registered) {
+            if (!isTarget(transformer, name, transformedName)) {
+                // Most chains are all or nothing, so only build a new one once a transformer is skipped
+                final List<IClassTransformer> chain = new ArrayList<>(registered.size());
+                for (final IClassTransformer candidate : registered) {
+                    if (isTarget(candidate, name, transformedName))
+                        chain.add(candidate);
+                }
+                return chain;
             }
         }
+        return registered;
+    }
 
-        return null;
+    private boolean isTarget(@NotNull IClassTransformer transformer, @NotNull String name, @NotNull String transformedName) {
+        return !(transformer instanceof ITargetedClassTransformer targeted) || targeted.isTarget(name, transformedName);
     }
 
-    private byte @Nullable [] runTransformers(@NotNull String name, @NotNull String transformedName, byte @Nullable [] basicClass) {
+    private byte @Nullable [] runTransformers(
+            @NotNull String name,
+            @NotNull String transformedName,
+            byte @Nullable [] basicClass,
+            @NotNull List<IClassTransformer> chain
+    ) {
         if (DEBUG_FINER)
             LOGGER.trace("Beginning transform of {{} ({})} Start Length: {}", name, transformedName, basicClass != null ? basicClass.length : 0);
 
-        for (final IClassTransformer transformer : transformers) {
+        for (final IClassTransformer transformer : chain) {
             final String transName = transformer.getClass().getName();
 
             if (DEBUG_FINER)
                 LOGGER.trace("Before Transformer {{} ({})} {}: {}", name, transformedName, transName, basicClass != null ? basicClass.length : 0);
 
-            basicClass = transformer.transform(name, transformedName, basicClass);
+            final byte[] input = basicClass;
+            final long start = System.nanoTime();
+            try {
+                basicClass = transformer.transform(name, transformedName, input);
+            } catch (Throwable t) {
+                transformerMetrics.failed(transName, System.nanoTime() - start);
+                throw t;
+            }
+            transformerMetrics.record(transName, System.nanoTime() - start, input, basicClass);
 
             if (DEBUG_FINER)
                 LOGGER.trace("After  Transformer {{} ({})} {}: {}", name, transformedName, transName, basicClass != null ? basicClass.length : 0);
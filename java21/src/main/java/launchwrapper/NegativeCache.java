@@ -0,0 +1,207 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Names that failed to load, bounded in size and cheap to ask about names that didn't fail.
+ * <p>
+ * The names are kept in an exact set, which forgets the oldest names once it is full. Forgotten names are looked up
+ * again, so the bound only costs time. A Bloom filter in front of the set answers most lookups of names that
+ * never failed without touching the set, its false positives fall through to the set and are counted.
+ * <p>
+ * Lookups are lock free, changes are serialized.
+ */
+public final class NegativeCache {
+    private static final int HASHES = 7;
+    private static final int BITS_PER_ENTRY = 10;
+
+    private final int capacity;
+    private final Map<String, Long> entries = new ConcurrentHashMap<>();
+    // Insertion order for eviction, may hold names that were removed since
+    private final ArrayDeque<Slot> order = new ArrayDeque<>();
+    private volatile AtomicLongArray filter;
+    private long sequence;
+    // Bits of forgotten names stay set, the filter is rebuilt before it fills up
+    private int addedSinceRebuild;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private long evictions;
+
+    NegativeCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.filter = newFilter();
+    }
+
+    boolean contains(@NotNull String name) {
+        lookups.increment();
+        final long hash = hash(name);
+        if (!mightContain(filter, hash)) {
+            return false;
+        }
+        if (entries.containsKey(name)) {
+            hits.increment();
+            return true;
+        }
+        falsePositives.increment();
+        return false;
+    }
+
+    synchronized void add(@NotNull String name) {
+        final long seq = sequence++;
+        if (entries.putIfAbsent(name, seq) != null) {
+            return;
+        }
+        order.add(new Slot(name, seq));
+        set(filter, hash(name));
+
+        while (entries.size() > capacity) {
+            final Slot eldest = order.poll();
+            if (eldest == null)
+                break;
+            if (entries.remove(eldest.name, eldest.seq))
+                evictions++;
+        }
+        if (order.size() > capacity * 2) {
+            compactOrder();
+        }
+        if (++addedSinceRebuild > capacity * 2) {
+            rebuildFilter();
+        }
+    }
+
+    synchronized void removeAll(@NotNull Collection<String> names) {
+        if (entries.keySet().removeAll(names)) {
+            rebuildFilter();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        order.clear();
+        filter = newFilter();
+        addedSinceRebuild = 0;
+    }
+
+    @NotNull
+    synchronized Stats stats() {
+        return new Stats(entries.size(), capacity, lookups.sum(), hits.sum(), falsePositives.sum(), evictions);
+    }
+
+    private void compactOrder() {
+        order.clear();
+        entries.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.naturalOrder()))
+                .forEach(entry -> order.add(new Slot(entry.getKey(), entry.getValue())));
+    }
+
+    private void rebuildFilter() {
+        final AtomicLongArray rebuilt = newFilter();
+        for (final String name : entries.keySet()) {
+            set(rebuilt, hash(name));
+        }
+        filter = rebuilt;
+        addedSinceRebuild = 0;
+    }
+
+    @NotNull
+    private AtomicLongArray newFilter() {
+        final long bits = Math.max(64, Long.highestOneBit((long) capacity * BITS_PER_ENTRY - 1) << 1);
+        return new AtomicLongArray((int) Math.min(bits >>> 6, 1 << 24));
+    }
+
+    private static boolean mightContain(@NotNull AtomicLongArray filter, long hash) {
+        final int mask = (filter.length() << 6) - 1;
+        int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++, h1 += h2) {
+            final int bit = h1 & mask;
+            if ((filter.get(bit >>> 6) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static void set(@NotNull AtomicLongArray filter, long hash) {
+        final int mask = (filter.length() << 6) - 1;
+        int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++, h1 += h2) {
+            final int bit = h1 & mask;
+            filter.getAndAccumulate(bit >>> 6, 1L << bit, (a, b) -> a | b);
+        }
+    }
+
+    private static long hash(@NotNull String name) {
+        // Spreads String.hashCode over 64 bits, see the finalizer of MurmurHash3
+        long h = name.hashCode() * 0x9E3779B97F4A7C15L + name.length();
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private record Slot(String name, long seq) {
+    }
+
+    /**
+     * Snapshot of the cache occupancy and counters
+     *
+     * @param entries        Number of remembered names
+     * @param capacity       Maximum number of remembered names
+     * @param lookups        Names asked about
+     * @param hits           Lookups of remembered names
+     * @param falsePositives Lookups the filter let through although the name wasn't remembered
+     * @param evictions      Names forgotten to stay within the capacity
+     */
+    public record Stats(int entries, int capacity, long lookups, long hits, long falsePositives, long evictions) {
+        /**
+         * @return Share of the lookups of names that weren't remembered which the filter failed to answer
+         */
+        public double falsePositiveRate() {
+            final long negatives = lookups - hits;
+            return negatives == 0 ? 0 : (double) falsePositives / negatives;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d names, %d lookups, %d hits, %.2f%% false positives, %d evictions",
+                    entries, capacity, lookups, hits, falsePositiveRate() * 100, evictions);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Set of class name prefixes, compiled into a character trie so {@link #matches(String)}
+ * answers in a single pass over the class name, however many prefixes there are.
+ * <p>
+ * Lookups read an immutable snapshot of the trie and never lock. Changes are rare
+ * (tweakers adding exclusions), so every change rebuilds the trie and publishes it at once.
+ */
+final class PrefixSet extends AbstractSet<String> {
+    private final Set<String> prefixes = new LinkedHashSet<>();
+    private volatile Node root = Node.EMPTY;
+    // Snapshot of the prefixes for iteration, replaced together with the trie
+    private volatile String[] elements = new String[0];
+
+    /**
+     * Checks whether {@code name} starts with any prefix of this set
+     *
+     * @param name Fully qualified class name
+     * @return Whether the name matches a prefix
+     */
+    boolean matches(@NotNull String name) {
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.terminal)
+                return true;
+            if (i == name.length())
+                return false;
+            node = node.child(name.charAt(i));
+            if (node == null)
+                return false;
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        for (final String element : elements) {
+            if (element.equals(o))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public synchronized boolean add(@NotNull String prefix) {
+        if (!prefixes.add(prefix))
+            return false;
+        rebuild();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean addAll(@NotNull Collection<? extends String> c) {
+        if (!prefixes.addAll(c))
+            return false;
+        rebuild();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        if (!prefixes.remove(o))
+            return false;
+        rebuild();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAll(@NotNull Collection<?> c) {
+        if (!prefixes.removeAll(c))
+            return false;
+        rebuild();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean retainAll(@NotNull Collection<?> c) {
+        if (!prefixes.retainAll(c))
+            return false;
+        rebuild();
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        prefixes.clear();
+        rebuild();
+    }
+
+    /**
+     * Iterates over a snapshot, so the set can change while it is being iterated.
+     * {@link Iterator#remove()} removes from the set itself.
+     */
+    @NotNull
+    @Override
+    public Iterator<String> iterator() {
+        final String[] snapshot = elements;
+        return new Iterator<>() {
+            private int index;
+            private String last;
+
+            @Override
+            public boolean hasNext() {
+                return index < snapshot.length;
+            }
+
+            @Override
+            public String next() {
+                if (index == snapshot.length)
+                    throw new NoSuchElementException();
+                return last = snapshot[index++];
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                PrefixSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void rebuild() {
+        final Builder builder = new Builder();
+        for (final String prefix : prefixes) {
+            Builder node = builder;
+            for (int i = 0; i < prefix.length(); i++)
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Builder());
+            node.terminal = true;
+        }
+        // Publish the trie before the elements, so a prefix is never listed without being matched
+        root = builder.build();
+        elements = prefixes.toArray(new String[0]);
+    }
+
+    private static final class Builder {
+        private final TreeMap<Character, Builder> children = new TreeMap<>();
+        private boolean terminal;
+
+        @NotNull
+        Node build() {
+            // Anything below a terminal node can never be reached by a lookup
+            if (terminal)
+                return Node.TERMINAL;
+            final char[] keys = new char[children.size()];
+            final Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (final var entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i++] = entry.getValue().build();
+            }
+            return new Node(false, keys, nodes);
+        }
+    }
+
+    private record Node(boolean terminal, char[] keys, Node[] children) {
+        static final Node EMPTY = new Node(false, new char[0], new Node[0]);
+        static final Node TERMINAL = new Node(true, new char[0], new Node[0]);
+
+        Node child(char c) {
+            final int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+    }
+}
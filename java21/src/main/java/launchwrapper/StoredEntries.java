@@ -0,0 +1,150 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Uncompressed classes of a memory mapped jar, which can be read without copying them through streams.
+ * <p>
+ * Only the central directory is parsed, just enough to find where the data of each stored class starts.
+ * Signed jars and zip64 jars are not supported, {@link #map(Path)} returns null for those.
+ */
+final class StoredEntries {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIZE = 30;
+
+    private final ByteBuffer data;
+    // Offset of the local header in the high half, size of the data in the low half
+    private final Map<String, Long> entries;
+
+    private StoredEntries(ByteBuffer data, Map<String, Long> entries) {
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     * @return The stored classes of the jar, or null if it has none or can't be mapped
+     */
+    @Nullable
+    static StoredEntries map(@NotNull Path file) throws IOException {
+        final MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() < END_SIZE || channel.size() > Integer.MAX_VALUE)
+                return null;
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        data.order(ByteOrder.LITTLE_ENDIAN);
+
+        final int end = findEnd(data);
+        if (end == -1)
+            return null;
+        final int count = Short.toUnsignedInt(data.getShort(end + 10));
+        final long directory = Integer.toUnsignedLong(data.getInt(end + 16));
+        if (directory >= end)
+            return null;
+
+        final Map<String, Long> entries = new HashMap<>();
+        int position = (int) directory;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_SIZE > end || data.getInt(position) != CENTRAL_SIGNATURE)
+                return null;
+            final int method = Short.toUnsignedInt(data.getShort(position + 10));
+            final long compressedSize = Integer.toUnsignedLong(data.getInt(position + 20));
+            final long size = Integer.toUnsignedLong(data.getInt(position + 24));
+            final int nameLength = Short.toUnsignedInt(data.getShort(position + 28));
+            final int extraLength = Short.toUnsignedInt(data.getShort(position + 30));
+            final int commentLength = Short.toUnsignedInt(data.getShort(position + 32));
+            final long offset = Integer.toUnsignedLong(data.getInt(position + 42));
+
+            final byte[] nameBytes = new byte[nameLength];
+            data.get(position + CENTRAL_SIZE, nameBytes);
+            final String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (isSignature(name))
+                return null;
+            if (method == 0 && size == compressedSize && size < Integer.MAX_VALUE && offset < Integer.MAX_VALUE && name.endsWith(".class"))
+                entries.put(name, offset << 32 | size);
+
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries.isEmpty() ? null : new StoredEntries(data, entries);
+    }
+
+    /**
+     * @param name Real name of the entry, see {@link java.util.jar.JarEntry#getRealName()}
+     * @return A read-only view of the entry data, or null if the entry isn't a stored class
+     */
+    @Nullable
+    ByteBuffer get(@NotNull String name) {
+        final Long entry = entries.get(name);
+        if (entry == null)
+            return null;
+        final int offset = (int) (entry >>> 32);
+        final int size = (int) (long) entry;
+        if (offset + LOCAL_SIZE > data.limit() || data.getInt(offset) != LOCAL_SIGNATURE)
+            return null;
+        final int start = offset + LOCAL_SIZE + Short.toUnsignedInt(data.getShort(offset + 26)) + Short.toUnsignedInt(data.getShort(offset + 28));
+        if (start + size > data.limit())
+            return null;
+        return data.slice(start, size);
+    }
+
+    private static int findEnd(@NotNull ByteBuffer data) {
+        // The end record is followed by a comment of at most 64 KiB
+        final int lowest = Math.max(0, data.limit() - END_SIZE - 0xFFFF);
+        for (int position = data.limit() - END_SIZE; position >= lowest; position--) {
+            if (data.getInt(position) == END_SIGNATURE)
+                return position;
+        }
+        return -1;
+    }
+
+    private static boolean isSignature(@NotNull String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1)
+            return false;
+        final String upper = name.toUpperCase(Locale.ROOT);
+        return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC");
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * On-disk cache of transformed classes, so restarts with the same jars skip running the transformers.
+ * <p>
+ * Entries are stored per fingerprint of the transformer chain: the transformer classes in order, the jars
+ * they come from, and every source of the class loader, which carries the mixin configs and other
+ * transformer configuration. Any change to those starts a new set of entries, and sets unused for a week are
+ * deleted. Within a set, a class is keyed by its name and a hash of its original bytes.
+ * <p>
+ * Skipping a transformer also skips its side effects, so this is opt-in with {@code -Dlegacy.transformCache=true}.
+ */
+final class TransformCache {
+    private static final int FORMAT = 1;
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not create hashing instance", e);
+        }
+    });
+
+    private final Path dir;
+    private final List<URL> sources;
+    private final List<IClassTransformer> transformers;
+    // Writes and cleanup happen off the class loading threads
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        final Thread thread = new Thread(task, "Transform Cache Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Generation generation;
+
+    /**
+     * @param sources      Live list of the class loader sources
+     * @param transformers Live list of the registered transformers
+     */
+    TransformCache(@NotNull Path dir, @NotNull List<URL> sources, @NotNull List<IClassTransformer> transformers) {
+        this.dir = dir;
+        this.sources = sources;
+        this.transformers = transformers;
+        this.generation = new Generation(List.copyOf(transformers), List.copyOf(sources));
+        writer.execute(this::deleteUnused);
+    }
+
+    /**
+     * Starts a new generation, must be called whenever a transformer or a source is added
+     */
+    void invalidate() {
+        generation = new Generation(List.copyOf(transformers), List.copyOf(sources));
+    }
+
+    /**
+     * Gets the current transformers together with the fingerprint they are cached by. Run exactly
+     * {@link Generation#transformers()} over a class, the live list may have changed meanwhile.
+     */
+    @NotNull
+    Generation generation() {
+        return generation;
+    }
+
+    /**
+     * Finds where the transformed bytes of a class are cached with the current transformer chain
+     *
+     * @param classData The original bytes, before any transformer could touch them
+     * @return The entry file, which may not exist yet
+     */
+    @NotNull
+    Path entry(@NotNull Generation generation, @NotNull String transformedName, byte @NotNull [] classData) {
+        final MessageDigest md = digest.get();
+        md.update(transformedName.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(classData);
+        final String key = HEX.formatHex(md.digest());
+        return generation.entriesDir().resolve(key.substring(0, 2)).resolve(key + ".class");
+    }
+
+    /**
+     * @return The cached transformed bytes, or null if this class wasn't transformed with the current chain before
+     */
+    byte @Nullable [] get(@NotNull Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.debug("Failed to read cached class {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches transformed bytes, unless a transformer or a source was added while they were being transformed
+     */
+    void put(@NotNull Generation generation, @NotNull Path file, byte @NotNull [] transformedClass) {
+        if (generation != this.generation)
+            return;
+        writer.execute(() -> {
+            final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(file.getParent());
+                Files.write(tempFile, transformedClass);
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to cache transformed class {}", file, e);
+            }
+        });
+    }
+
+    private static void appendStamp(@NotNull StringBuilder chain, @Nullable URL url) {
+        chain.append(url).append('\t');
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(Paths.get(url.toURI()), BasicFileAttributes.class);
+                chain.append(attributes.size()).append('\t').append(attributes.lastModifiedTime().toMillis());
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                chain.append('?');
+            }
+        }
+        chain.append('\n');
+    }
+
+    private void touch(@NotNull Path entries) {
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(entries);
+                Files.setLastModifiedTime(entries, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                LOGGER.debug("Failed to create transform cache directory {}", entries, e);
+            }
+        });
+    }
+
+    /**
+     * The registered transformers and the sources at one point in time, and the directory of the entries they produce
+     */
+    final class Generation {
+        private final List<IClassTransformer> transformers;
+        private final List<URL> sources;
+        @Nullable
+        private volatile Path entriesDir;
+
+        private Generation(@NotNull List<IClassTransformer> transformers, @NotNull List<URL> sources) {
+            this.transformers = transformers;
+            this.sources = sources;
+        }
+
+        @NotNull
+        List<IClassTransformer> transformers() {
+            return transformers;
+        }
+
+        @NotNull
+        private Path entriesDir() {
+            Path result = entriesDir;
+            if (result == null) {
+                synchronized (this) {
+                    result = entriesDir;
+                    if (result == null) {
+                        result = dir.resolve(fingerprint());
+                        touch(result);
+                        entriesDir = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @NotNull
+        private String fingerprint() {
+            final MessageDigest md = digest.get();
+            final StringBuilder chain = new StringBuilder().append(FORMAT).append('\n');
+            for (final IClassTransformer transformer : transformers) {
+                chain.append(transformer.getClass().getName()).append('\t');
+                final CodeSource codeSource = transformer.getClass().getProtectionDomain().getCodeSource();
+                appendStamp(chain, codeSource != null ? codeSource.getLocation() : null);
+            }
+            chain.append('\n');
+            for (final URL source : sources) {
+                appendStamp(chain, source);
+            }
+            return HEX.formatHex(md.digest(chain.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private void deleteUnused() {
+        if (Files.notExists(dir))
+            return;
+        final long oldest = System.currentTimeMillis() - MAX_AGE;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path entries : stream) {
+                if (Files.getLastModifiedTime(entries).toMillis() >= oldest)
+                    continue;
+                LOGGER.debug("Deleting unused transform cache {}", entries);
+                try (Stream<Path> files = Files.walk(entries)) {
+                    for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to clean up transform cache {}", dir, e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.fandmc.fandclip.Fandclip.LOGGER;
+
+/**
+ * Counters of the transformer chain of a {@link LaunchClassLoader}, cheap enough to always be on:
+ * recording a call is two clock reads and a few uncontended adds.
+ */
+final class TransformerMetrics implements TransformerMetricsMXBean {
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    void record(@NotNull String transformer, long nanos, byte[] in, byte[] out) {
+        final Counters c = counters(transformer);
+        c.add(nanos);
+        if (in != null)
+            c.bytesIn.add(in.length);
+        if (out != null)
+            c.bytesOut.add(out.length);
+        // Transformers hand back the same array when they leave a class alone
+        if (out == in)
+            c.passedThrough.increment();
+        else
+            c.changed.increment();
+    }
+
+    void failed(@NotNull String transformer, long nanos) {
+        final Counters c = counters(transformer);
+        c.add(nanos);
+        c.failures.increment();
+    }
+
+    @NotNull
+    private Counters counters(@NotNull String transformer) {
+        final Counters c = counters.get(transformer);
+        return c != null ? c : counters.computeIfAbsent(transformer, key -> new Counters());
+    }
+
+    @Override
+    public List<TransformerStats> getTransformers() {
+        final List<TransformerStats> result = new ArrayList<>(counters.size());
+        counters.forEach((name, c) -> result.add(c.snapshot(name)));
+        result.sort(Comparator.comparingLong(TransformerStats::getTotalMicros).reversed());
+        return result;
+    }
+
+    @Override
+    public String dump() {
+        final StringBuilder table = new StringBuilder(String.format("%-60s %10s %10s %8s %8s %8s %10s %10s %8s %8s %6s%n",
+                "Transformer", "Calls", "Total ms", "p50 us", "p99 us", "Max us", "KiB in", "KiB out", "Changed", "Passed", "Failed"));
+        for (final TransformerStats stats : getTransformers()) {
+            table.append(String.format("%-60s %10d %10d %8d %8d %8d %10d %10d %8d %8d %6d%n",
+                    stats.getName(),
+                    stats.getInvocations(),
+                    stats.getTotalMicros() / 1000,
+                    stats.getP50Micros(),
+                    stats.getP99Micros(),
+                    stats.getMaxMicros(),
+                    stats.getBytesIn() >> 10,
+                    stats.getBytesOut() >> 10,
+                    stats.getChanged(),
+                    stats.getPassedThrough(),
+                    stats.getFailures()));
+        }
+        LOGGER.info("Transformer metrics:\n{}", table);
+        return table.toString();
+    }
+
+    @Override
+    public void reset() {
+        counters.clear();
+    }
+
+    private static final class Counters {
+        // Bucket i counts calls that took less than 2^(i + 1) ns
+        private final AtomicLongArray histogram = new AtomicLongArray(64);
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder changed = new LongAdder();
+        private final LongAdder passedThrough = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        void add(long elapsed) {
+            invocations.increment();
+            nanos.add(elapsed);
+            maxNanos.accumulate(elapsed);
+            histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, elapsed)));
+        }
+
+        @NotNull
+        TransformerStats snapshot(@NotNull String name) {
+            final long[] buckets = new long[histogram.length()];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.get(i);
+                count += buckets[i];
+            }
+            final long maxMicros = TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+            // Buckets only know an upper bound, which may be above the slowest call
+            return new TransformerStats(
+                    name,
+                    invocations.sum(),
+                    TimeUnit.NANOSECONDS.toMicros(nanos.sum()),
+                    Math.min(percentile(buckets, count, 0.5), maxMicros),
+                    Math.min(percentile(buckets, count, 0.99), maxMicros),
+                    maxMicros,
+                    bytesIn.sum(),
+                    bytesOut.sum(),
+                    changed.sum(),
+                    passedThrough.sum(),
+                    failures.sum()
+            );
+        }
+
+        private static long percentile(long @NotNull [] buckets, long count, double fraction) {
+            if (count == 0)
+                return 0;
+            final long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return TimeUnit.NANOSECONDS.toMicros(i >= 62 ? Long.MAX_VALUE : 1L << (i + 1));
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of project Orion, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Original contributors ("I don't care" license? See https://github.com/Mojang/LegacyLauncher/issues/1)
+ * Copyright (c) 2017-2018 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package launchwrapper;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Snapshot of the cost of one transformer. Times are in microseconds, percentiles are rounded up to a power of two.
+ */
+public final class TransformerStats {
+    private final String name;
+    private final long invocations;
+    private final long totalMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long changed;
+    private final long passedThrough;
+    private final long failures;
+
+    @ConstructorParameters({"name", "invocations", "totalMicros", "p50Micros", "p99Micros", "maxMicros",
+            "bytesIn", "bytesOut", "changed", "passedThrough", "failures"})
+    public TransformerStats(@NotNull String name, long invocations, long totalMicros, long p50Micros, long p99Micros, long maxMicros,
+                            long bytesIn, long bytesOut, long changed, long passedThrough, long failures) {
+        this.name = name;
+        this.invocations = invocations;
+        this.totalMicros = totalMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.changed = changed;
+        this.passedThrough = passedThrough;
+        this.failures = failures;
+    }
+
+    /**
+     * @return Fully qualified transformer class name
+     */
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return Classes the transformer returned different bytes for
+     */
+    public long getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return Classes the transformer returned untouched
+     */
+    public long getPassedThrough() {
+        return passedThrough;
+    }
+
+    /**
+     * @return Classes the transformer threw an exception for
+     */
+    public long getFailures() {
+        return failures;
+    }
+}